@@ -0,0 +1,62 @@
+package jlox.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在一条环境链的最内层读取定义在最外层的变量。get 沿着链逐层查找（未被 resolve 的变量就是这样访问的），
+ * getAt 按 resolver 给出的深度直接跳到目标环境。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvironmentBenchmark {
+
+    /**
+     * 目标变量所在的环境与最内层环境之间的距离
+     */
+    @Param({"0", "4", "16"})
+    public int depth;
+
+    private Object innermost;
+    private Object name;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Object env = LoxApi.newEnvironment(null);
+        LoxApi.define(env, "target", 1.0);
+        for (int i = 0; i < depth; i++) {
+            env = LoxApi.newEnvironment(env);
+            // 每一层都有几个无关的变量，使得每一次查找都是真实的哈希表查找
+            LoxApi.define(env, "local" + i, (double) i);
+            LoxApi.define(env, "other" + i, (double) i);
+        }
+        innermost = env;
+        name = LoxApi.identifier("target");
+    }
+
+    @Benchmark
+    public Object get() {
+        return LoxApi.get(innermost, name);
+    }
+
+    @Benchmark
+    public Object getAt() {
+        return LoxApi.getAt(innermost, name, depth);
+    }
+}
@@ -0,0 +1,77 @@
+package jlox.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * scan、parse、resolve 三个阶段各自的开销。每个阶段的输入都在 setup 中由前一个阶段准备好，
+ * 因此测得的只是该阶段本身。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+
+    /**
+     * 源码中单元的数量，见 {@link LoxSources}。一个单元大约 30 行、240 个 token
+     */
+    @Param({"10", "100", "1000"})
+    public int units;
+
+    private String source;
+    private List<?> tokens;
+    private List<?> statements;
+    private Object interpreter;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        out = LoxApi.silence();
+        source = LoxSources.program(units);
+        tokens = LoxApi.scan(source);
+        statements = LoxApi.parse(tokens);
+        interpreter = LoxApi.newInterpreter();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public List<?> scan() {
+        return LoxApi.scan(source);
+    }
+
+    @Benchmark
+    public List<?> parse() {
+        return LoxApi.parse(tokens);
+    }
+
+    /**
+     * resolver 只会在节点上写入深度，重复 resolve 同一棵树得到的结果相同，所以可以反复使用同一个语句列表
+     */
+    @Benchmark
+    public List<?> resolve() {
+        LoxApi.resolve(interpreter, statements);
+        return statements;
+    }
+}
@@ -0,0 +1,68 @@
+package jlox.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LoxInstance.get：读取字段，以及读取定义在继承链顶端的方法（查找 + 绑定 this）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstanceBenchmark {
+
+    /**
+     * 对象的类与定义方法的类之间的继承层数
+     */
+    @Param({"0", "4", "16"})
+    public int inheritance;
+
+    private Object instance;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        out = LoxApi.silence();
+        StringBuilder sb = new StringBuilder();
+        sb.append("class C0 { init() { this.field = 1; } method() { return this.field; } }\n");
+        for (int i = 1; i <= inheritance; i++) {
+            sb.append("class C%d: C%d { }\n".formatted(i, i - 1));
+        }
+        sb.append("var instance = C%d();\n".formatted(inheritance));
+        Object interpreter = LoxApi.newInterpreter();
+        LoxApi.interpret(interpreter, LoxApi.compile(interpreter, sb));
+        instance = LoxApi.get(LoxApi.global(interpreter), LoxApi.identifier("instance"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public Object field() {
+        return LoxApi.instanceGet(instance, "field");
+    }
+
+    @Benchmark
+    public Object method() {
+        return LoxApi.instanceGet(instance, "method");
+    }
+}
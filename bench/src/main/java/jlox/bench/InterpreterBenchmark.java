@@ -0,0 +1,60 @@
+package jlox.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 完整地执行一段已经 resolve 过的程序。
+ * 程序只在全局环境中定义（或重新定义）名字，所以同一个 interpreter 可以反复执行它。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+
+    /**
+     * 程序中单元的数量，见 {@link LoxSources}
+     */
+    @Param({"1", "10", "100"})
+    public int units;
+
+    private Object interpreter;
+    private List<?> statements;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        out = LoxApi.silence();
+        interpreter = LoxApi.newInterpreter();
+        statements = LoxApi.compile(interpreter, LoxSources.program(units));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public Object interpret() {
+        LoxApi.interpret(interpreter, statements);
+        return interpreter;
+    }
+}
@@ -0,0 +1,250 @@
+package jlox.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/**
+ * <p>解释器各个阶段的入口。</p>
+ * 解释器的类都位于默认包中，而 JMH 不接受默认包中的基准测试，具名包又无法 import 默认包中的类，
+ * 所以这里通过 MethodHandle 来调用它们。所有句柄都是 static final 的，并且被转换为只含 Object 的签名，
+ * 因此 {@code invokeExact} 会被 JIT 内联，调用本身不会影响测量结果。
+ */
+public final class LoxApi {
+
+    private static final MethodHandle NEW_SCANNER;
+    private static final MethodHandle SCAN_TOKENS;
+    private static final MethodHandle NEW_PARSER;
+    private static final MethodHandle PARSE;
+    private static final MethodHandle NEW_INTERPRETER;
+    private static final MethodHandle NEW_RESOLVER;
+    private static final MethodHandle RESOLVE;
+    private static final MethodHandle INTERPRET;
+    private static final MethodHandle GLOBAL;
+    private static final MethodHandle NEW_ENVIRONMENT;
+    private static final MethodHandle NEW_ENCLOSED_ENVIRONMENT;
+    private static final MethodHandle DEFINE;
+    private static final MethodHandle ENV_GET;
+    private static final MethodHandle ENV_GET_AT;
+    private static final MethodHandle NEW_IDENTIFIER;
+    private static final MethodHandle INSTANCE_GET;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> scanner = Class.forName("LoxScanner");
+            Class<?> parser = Class.forName("LoxParser");
+            Class<?> resolver = Class.forName("LoxResolver");
+            Class<?> interpreter = Class.forName("Interpreter");
+            Class<?> context = Class.forName("LoxContext");
+            Class<?> environment = Class.forName("Environment");
+            Class<?> token = Class.forName("Token");
+            Class<?> tokenType = Class.forName("TokenType");
+            Class<?> instance = Class.forName("LoxInstance");
+
+            NEW_SCANNER = generic(lookup.findConstructor(scanner, MethodType.methodType(void.class, CharSequence.class)));
+            SCAN_TOKENS = generic(lookup.findVirtual(scanner, "scanTokens", MethodType.methodType(List.class)));
+            NEW_PARSER = generic(lookup.findConstructor(parser, MethodType.methodType(void.class, List.class)));
+            PARSE = generic(lookup.findVirtual(parser, "parse", MethodType.methodType(List.class)));
+            MethodHandle newContext = lookup.findConstructor(context, MethodType.methodType(void.class));
+            MethodHandle getInterpreter = lookup.findVirtual(context, "getInterpreter", MethodType.methodType(interpreter));
+            NEW_INTERPRETER = generic(MethodHandles.filterReturnValue(newContext, getInterpreter));
+            NEW_RESOLVER = generic(lookup.findConstructor(resolver, MethodType.methodType(void.class, interpreter)));
+            RESOLVE = generic(lookup.findVirtual(resolver, "resolve", MethodType.methodType(void.class, List.class)));
+            INTERPRET = generic(lookup.findVirtual(interpreter, "interpret", MethodType.methodType(void.class, List.class)));
+            GLOBAL = generic(lookup.findGetter(interpreter, "global", environment));
+            NEW_ENVIRONMENT = generic(lookup.findConstructor(environment, MethodType.methodType(void.class)));
+            NEW_ENCLOSED_ENVIRONMENT = generic(lookup.findConstructor(environment, MethodType.methodType(void.class, environment)));
+            DEFINE = generic(lookup.findVirtual(environment, "define", MethodType.methodType(void.class, String.class, Object.class)));
+            ENV_GET = generic(lookup.findVirtual(environment, "get", MethodType.methodType(Object.class, token)));
+            ENV_GET_AT = generic(lookup.findVirtual(environment, "getAt", MethodType.methodType(Object.class, token, int.class)));
+            MethodHandle newToken = lookup.findConstructor(token, MethodType.methodType(void.class, tokenType, String.class, Object.class, int.class));
+            Object identifier = tokenType.getField("IDENTIFIER").get(null);
+            NEW_IDENTIFIER = generic(MethodHandles.insertArguments(newToken, 0, identifier));
+            INSTANCE_GET = generic(lookup.findVirtual(instance, "get", MethodType.methodType(Object.class, String.class)));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private LoxApi() {
+    }
+
+    /**
+     * 把句柄的签名中所有的引用类型都换成 Object，使得调用处可以使用 invokeExact
+     */
+    private static MethodHandle generic(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (!type.parameterType(i).isPrimitive()) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (!type.returnType().isPrimitive()) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException e) {
+            throw e;
+        }
+        if (t instanceof Error e) {
+            throw e;
+        }
+        throw new IllegalStateException(t);
+    }
+
+    /**
+     * @return List&lt;Token&gt;
+     */
+    public static List<?> scan(CharSequence source) {
+        try {
+            return (List<?>) (Object) SCAN_TOKENS.invokeExact((Object) NEW_SCANNER.invokeExact((Object) source));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * @param tokens {@link #scan(CharSequence)} 的结果
+     * @return List&lt;Stmt&gt;
+     */
+    public static List<?> parse(List<?> tokens) {
+        try {
+            return (List<?>) (Object) PARSE.invokeExact((Object) NEW_PARSER.invokeExact((Object) tokens));
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * @return 一个新的 LoxContext 中的、已经完成标准库初始化的 Interpreter
+     */
+    public static Object newInterpreter() {
+        try {
+            return (Object) NEW_INTERPRETER.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * 用一个新的 resolver 处理语句列表。深度被记录在语句的节点上
+     */
+    public static void resolve(Object interpreter, List<?> statements) {
+        try {
+            RESOLVE.invokeExact((Object) NEW_RESOLVER.invokeExact(interpreter), (Object) statements);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public static void interpret(Object interpreter, List<?> statements) {
+        try {
+            INTERPRET.invokeExact(interpreter, (Object) statements);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * scan、parse、resolve 一段源码
+     */
+    public static List<?> compile(Object interpreter, CharSequence source) {
+        List<?> statements = parse(scan(source));
+        resolve(interpreter, statements);
+        return statements;
+    }
+
+    /**
+     * @return interpreter 的全局环境
+     */
+    public static Object global(Object interpreter) {
+        try {
+            return (Object) GLOBAL.invokeExact(interpreter);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * @param enclosing 外层环境。为 null 时创建一个最外层的环境
+     */
+    public static Object newEnvironment(Object enclosing) {
+        try {
+            if (enclosing == null) {
+                return (Object) NEW_ENVIRONMENT.invokeExact();
+            }
+            return (Object) NEW_ENCLOSED_ENVIRONMENT.invokeExact(enclosing);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public static void define(Object environment, String name, Object value) {
+        try {
+            DEFINE.invokeExact(environment, (Object) name, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * @return 一个标识符类型的 Token
+     */
+    public static Object identifier(String name) {
+        try {
+            return (Object) NEW_IDENTIFIER.invokeExact((Object) name, (Object) null, 1);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Environment.get(Token)：沿着环境链动态地查找
+     */
+    public static Object get(Object environment, Object token) {
+        try {
+            return (Object) ENV_GET.invokeExact(environment, token);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Environment.getAt(Token, int)：按 resolver 给出的深度直接查找
+     */
+    public static Object getAt(Object environment, Object token, int distance) {
+        try {
+            return (Object) ENV_GET_AT.invokeExact(environment, token, distance);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * LoxInstance.get(String)：先查字段，再沿着类链查找方法并绑定 this
+     */
+    public static Object instanceGet(Object instance, String name) {
+        try {
+            return (Object) INSTANCE_GET.invokeExact(instance, (Object) name);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * 解释器在 resolve 和执行时会直接向 stdout 输出（警告、print 语句）。测量期间丢弃这些输出
+     * @return 原来的 System.out，用于之后恢复
+     */
+    public static PrintStream silence() {
+        PrintStream old = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return old;
+    }
+}
@@ -0,0 +1,58 @@
+package jlox.bench;
+
+/**
+ * 生成基准测试使用的 lox 源码。源码由若干个互不相同的单元拼接而成，每个单元包含函数、闭包、类与继承、
+ * 循环、f-string、数组和元组，覆盖 scanner/parser/resolver 的大部分分支。源码的大小与单元的数量成正比。
+ */
+public final class LoxSources {
+
+    private LoxSources() {
+    }
+
+    /**
+     * @param units 单元的数量
+     * @return 一段合法的、可以被执行的 lox 源码。执行它的开销也与单元的数量成正比
+     */
+    public static String program(int units) {
+        StringBuilder sb = new StringBuilder(units * 700);
+        for (int i = 0; i < units; i++) {
+            unit(sb, i);
+        }
+        return sb.toString();
+    }
+
+    private static void unit(StringBuilder sb, int i) {
+        sb.append("""
+                /* unit %1$d */
+                fun fib%1$d(n) {
+                    if (n < 2) return n;
+                    return fib%1$d(n - 1) + fib%1$d(n - 2);
+                }
+                fun counter%1$d() {
+                    var count = 0;
+                    fun inc() { count = count + 1; return count; }
+                    return inc;
+                }
+                class Shape%1$d {
+                    init(name) { this.name = name; }
+                    area() { return 0; }
+                    describe() { return f "{this.name} has area {this.area()}"; }
+                }
+                class Rect%1$d: Shape%1$d {
+                    init(w, h) { super.init("rect"); this.w = w; this.h = h; }
+                    area() { return this.w * this.h; }
+                }
+                var total%1$d = 0;
+                var inc%1$d = counter%1$d();
+                for (var i = 0; i < 10; i++) {
+                    var r = Rect%1$d(i, %1$d + 1);
+                    total%1$d = total%1$d + r.area() + inc%1$d();
+                }
+                var arr%1$d = [4];
+                arr%1$d[0] = fib%1$d(8);
+                arr%1$d[1] = Rect%1$d(2, 3).describe();
+                var (a%1$d, b%1$d) = (total%1$d, "done %1$d")
+                // %1$d: trailing comment
+                """.formatted(i));
+    }
+}
@@ -1,6 +1,18 @@
 import java.util.HashMap;
 
 public class Environment {
+    /**
+     * 被扁平的闭包捕获的变量在环境中保存为一个 Cell：定义变量的环境和闭包（见 {@link Interpreter#closureOf}）共享同一个 Cell，
+     * 因此双方都能看到对方的赋值。get 和 assign 会透过 Cell 读写，调用者不会看到它
+     */
+    static final class Cell {
+        Object value;
+
+        Cell(Object value) {
+            this.value = value;
+        }
+    }
+
     public final HashMap<String, Object> values = new HashMap<>();
     private Environment enclosing;
 
@@ -11,20 +23,29 @@ public class Environment {
     private String dir;
 
     public Environment() {
+        if (LoxMetrics.ENABLED) {
+            LoxMetrics.environments.increment();
+        }
     }
 
     public Environment(String dir) {
         this.dir = dir;
+        if (LoxMetrics.ENABLED) {
+            LoxMetrics.environments.increment();
+        }
     }
 
     public Environment(Environment enclosing) {
         this.enclosing = enclosing;
         this.dir = enclosing.dir;
+        if (LoxMetrics.ENABLED) {
+            LoxMetrics.environments.increment();
+        }
     }
 
     public Object get(Token name) {
         if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+            return unwrap(values.get(name.lexeme));
         } else if (enclosing != null) {
             return enclosing.get(name);
         } else {
@@ -34,7 +55,7 @@ public class Environment {
 
     public Object get(String name) {
         if (values.containsKey(name)) {
-            return values.get(name);
+            return unwrap(values.get(name));
         } else if (enclosing != null) {
             return enclosing.get(name);
         } else {
@@ -43,12 +64,9 @@ public class Environment {
     }
 
     public Object getAt(String name, int distance) {
-        Environment curr = this;
-        for (int i = 0; i < distance; i++) {
-            curr = curr.enclosing;
-        }
+        Environment curr = ancestor(distance);
         if (curr.values.containsKey(name)) {
-            return curr.values.get(name);
+            return unwrap(curr.values.get(name));
         } else {
             throw new LoxRuntimeError(null, "no such variable/field: " + name);
         }
@@ -64,7 +82,7 @@ public class Environment {
 
     public void assign(Token name, Object value) {
         if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
+            put(name.lexeme, value);
         } else if (enclosing != null) {
             enclosing.assign(name, value);
         } else {
@@ -73,10 +91,29 @@ public class Environment {
     }
 
     public void assignAt(Token name, Object value, int distance) {
+        ancestor(distance).put(name.lexeme, value);
+    }
+
+    /**
+     * @return 沿着环境链向外第 distance 层的环境
+     */
+    Environment ancestor(int distance) {
         Environment curr = this;
         for (int i = 0; i < distance; i++) {
             curr = curr.enclosing;
         }
-        curr.values.put(name.lexeme, value);
+        return curr;
+    }
+
+    private void put(String name, Object value) {
+        if (values.get(name) instanceof Cell cell) {
+            cell.value = value;
+        } else {
+            values.put(name, value);
+        }
+    }
+
+    private static Object unwrap(Object value) {
+        return value instanceof Cell cell ? cell.value : value;
     }
 }
@@ -35,6 +35,7 @@ public abstract class Expr {
 
     final Token name;
     final Expr value;
+    int depth = -1; // resolver 计算出的深度。-1 表示没有被 resolve，运行时动态地查找
   }
   public static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
@@ -163,6 +164,7 @@ public abstract class Expr {
     }
 
     final Token name;
+    int depth = -1; // resolver 计算出的深度。-1 表示没有被 resolve，运行时动态地查找
   }
 
   public static class FString extends Expr {
@@ -182,6 +184,7 @@ public abstract class Expr {
 
   public static class This extends Expr {
     Token keyword;
+    int depth = -1; // resolver 计算出的深度
 
     public This(Token keyword) {
       this.keyword = keyword;
@@ -294,6 +297,7 @@ public abstract class Expr {
   public static class Super extends Expr {
     Token superKeyword;
     Token methodName;
+    int depth = -1; // resolver 计算出的深度
 
     public Super(Token superKeyword, Token methodName) {
       this.superKeyword = superKeyword;
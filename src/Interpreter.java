@@ -7,29 +7,118 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    public Environment global = new Environment(System.getProperty("user.dir")); // global 用来储存全局变量
+    public Environment global; // global 用来储存全局变量
+    final LoxContext context; // 所属的 context。错误报告给它，fork 出来的 interpreter 与之共享
 
     /**
      * native object 的父类是 null！
      */
-    private final LoxInstance nativeObject = new LoxInstance((LoxClass) null);
-    private final HashMap<Expr, Integer> locals = new HashMap<>(); // 每一个变量表达式所访问的变量的深度。
-    private Environment environment = global;
+    private final LoxInstance nativeObject;
+    private final LoxModuleCache moduleCache; // 已经 resolve 过的模块的磁盘缓存
+    private final HashMap<Path, ModuleLoad> modules; // 已经执行过的和正在执行的模块，键为模块文件的规范路径
+    private final LinkedHashSet<Path> loadingModules; // 这个 interpreter（以及 fork 出它的 interpreter）正在执行的模块，按导入的顺序排列。用于检测循环导入
+    private Path awaitedModule; // 这个 interpreter 正在等待其他任务加载的模块
+    private final ReentrantLock importLock; // 保护 modules、各个 interpreter 的 loadingModules 和 awaitedModule。fork 出来的 interpreter 共享同一把锁
+    private final LoxModulePrefetcher prefetcher; // 在后台并行地读取、解析导入图
+    final LoxPerf perf; // perf 模块的计数器与计时器
+    LoxProfiler profiler; // 不为 null 时，LoxFunction 会在其中维护影子栈。见 --profile
+    LoxClass originClass; // 所有类的父类，由 LoxOrigin.lox 定义
+    LoxClass arrayClass; // 所有数组的类，由 LoxCore.lox 定义
+    LoxClass listClass; // 标准库中的 List 与 RangeObject，parallel with 和 seq 直接读取它们的内容
+    LoxClass rangeClass;
+    private Environment environment;
+    private int fuel = LoxLimits.CHECK_INTERVAL; // 距离下一次检查执行限制还剩多少步，见 safepoint
+    long allocationMark; // 上一次检查时当前线程已经分配的字节数，由 LoxLimits 维护
+    int allocationGeneration = -1;
+    private Stmt.Block loopBlock; // 最内层的、复用环境的循环的 block 和它的环境，见 visitWhileStmt
+    private Environment loopEnvironment;
+    LoxGenerator.Handoff generator; // 不为 null 时，这个 interpreter 正在执行一个生成器的函数体，yield 把值交给它
+
+    /**
+     * 一个模块的加载：负责加载它的 interpreter，以及加载的结果。加载失败时结果为 null，等待者会重新尝试导入
+     */
+    private record ModuleLoad(Interpreter loader, CompletableFuture<Environment> result) {
+        ModuleLoad(Interpreter loader) {
+            this(loader, new CompletableFuture<>());
+        }
+    }
+
+    /**
+     * 标准库 resolve 之后的语句，以资源的路径为键，由所有的 context 共享。语句在 resolve 之后不再改变，
+     * 每个 context 各自执行它们，得到属于自己的类和函数。见 {@link LoxContext}
+     */
+    static final ConcurrentHashMap<String, List<Stmt>> bootstrapStatements = new ConcurrentHashMap<>();
 
     /**
      * native：提供一些底层函数
      * origin：所有类的父类
      * core：array 等内建特殊类
      * lib：并不特殊，但预先导入
+     * <p>通过 {@link LoxContext#LoxContext()} 创建
      */
-    public Interpreter() {
+    Interpreter(LoxContext context) {
+        this.context = context;
+        global = new Environment(System.getProperty("user.dir"));
+        environment = global;
+        nativeObject = new LoxInstance((LoxClass) null);
+        moduleCache = LoxModuleCache.fromSystemProperty();
+        modules = new HashMap<>();
+        loadingModules = new LinkedHashSet<>();
+        importLock = new ReentrantLock();
+        prefetcher = new LoxModulePrefetcher(moduleCache);
+        perf = new LoxPerf();
         setupNative();
+        setupPerfNative();
+        setupCollectionNative();
         loadLoxOrigin();
         loadLoxCore();
         loadLoxLib();
+        loadLoxPerf();
+    }
+
+    /**
+     * <p>创建一个与 parent 共享全局环境、native、已导入的模块、perf 状态的 interpreter。</p>
+     * 它有自己的当前环境（从全局环境开始），因此可以在另一个线程上执行 lox 代码，见 {@link LoxTask}。
+     * 它的导入链从 parent 当前的导入链开始，之后各自独立，见 {@link #importModule}。
+     * 解析好的代码和类都是共享的，因为函数和类只通过它们的闭包环境来访问变量，而不依赖于 interpreter。
+     */
+    private Interpreter(Interpreter parent, LoxContext context, LoxModulePrefetcher prefetcher) {
+        this.context = context;
+        global = parent.global;
+        environment = global;
+        nativeObject = parent.nativeObject;
+        moduleCache = parent.moduleCache;
+        modules = parent.modules;
+        loadingModules = new LinkedHashSet<>(parent.loadingModules); // 任务导入 parent 正在执行的模块是循环导入，而不是等待 parent
+        importLock = parent.importLock;
+        this.prefetcher = prefetcher;
+        perf = parent.perf;
+        originClass = parent.originClass;
+        arrayClass = parent.arrayClass;
+        listClass = parent.listClass;
+        rangeClass = parent.rangeClass;
+    }
+
+    Interpreter fork() {
+        return new Interpreter(this, context, prefetcher);
+    }
+
+    /**
+     * 与 {@link #fork()} 相同，但新的 interpreter 属于另一个 context：它有自己的输出、执行限制、错误状态和模块预读，
+     * 全局环境、内建类和已导入的模块依然是共享的。见 {@link LoxContext#LoxContext(LoxContext)}
+     */
+    Interpreter fork(LoxContext context) {
+        return new Interpreter(this, context, new LoxModulePrefetcher(moduleCache));
     }
 
     /**
@@ -44,10 +133,25 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         } catch (LoxRuntimeError e) {
             // 运行时有很多方法可能会产生运行时错误
-            Lox.reportRuntimeError(e);
+            context.reportRuntimeError(e);
         }
     }
 
+    /**
+     * 在后台开始读取、解析这些语句（传递地）导入的所有模块，使得执行到 import 时模块已经准备好了。
+     * 这些语句中的 import 路径相对于全局环境的目录
+     */
+    public void prefetchImports(List<Stmt> statementList) {
+        prefetcher.prefetch(statementList, global.getDir());
+    }
+
+    /**
+     * 一次运行结束了，丢弃预读了但没有被导入的模块
+     */
+    public void discardPrefetched() {
+        prefetcher.discard();
+    }
+
     /**
      * 对一个表达式求值
      *
@@ -68,17 +172,25 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return stmt.accept(this);
     }
 
+    /**
+     * 把 resolver 计算出的深度直接记录在表达式节点上，运行时读取一个字段即可，不需要再查一张以表达式为键的哈希表
+     */
     public void resolve(Expr expr, int distance) {
-        locals.put(expr, distance);
+        switch (expr) {
+            case Expr.Variable variable -> variable.depth = distance;
+            case Expr.Assign assign -> assign.depth = distance;
+            case Expr.This thisExpr -> thisExpr.depth = distance;
+            case Expr.Super superExpr -> superExpr.depth = distance;
+            default -> throw new IllegalArgumentException("cannot resolve " + expr.getClass().getSimpleName());
+        }
     }
 
     /**
-     * 根据 locals 中的结果，确定需要向外寻找的环境的层级
-     * 如果 locals 中不存在对应的 key，那么动态地寻找
+     * 根据 resolver 记录在节点上的深度，确定需要向外寻找的环境的层级
+     * 如果深度为 -1（没有被 resolve），那么动态地寻找
      */
-    private Object lookupVariable(Expr expr, Token token) {
-        Integer distance = locals.get(expr);
-        if (distance == null) {
+    private Object lookupVariable(int distance, Token token) {
+        if (distance < 0) {
 //            return global.get(token);
             return environment.get(token);
         } else {
@@ -105,13 +217,37 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
 
+    /**
+     * 与 {@link #executeWithEnvironment} 相同，但运行时错误不会被报告，而是直接抛出
+     *
+     * @return 最后一个语句的值：如果它是表达式语句，为表达式的值，否则为 null
+     */
+    Object evalWithEnvironment(List<Stmt> statements, Environment env) {
+        Environment old = this.environment;
+        this.environment = env;
+        try {
+            Object value = null;
+            for (Stmt statement : statements) {
+                if (statement instanceof Stmt.Expression expression) {
+                    value = evaluate(expression.expression);
+                } else {
+                    execute(statement);
+                    value = null;
+                }
+            }
+            return value;
+        } finally {
+            this.environment = old;
+        }
+    }
+
     /**
      * 判断一个值是否为 Lox 意义上的“true”。只有 null 和 false 为 false，其他都是 true
      *
      * @param a 想要判断的值
      * @return 是否为真
      */
-    private boolean isTrue(Object a) {
+    static boolean isTrue(Object a) {
         if (a == null) {
             return false;
         }
@@ -131,14 +267,42 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     private boolean isEqual(Object a, Object b) {
         if (a == null || b == null) {
             return a == b;
+        } else if (a instanceof Long l && b instanceof Double d) {
+            return isLongValued(d) && (long) (double) d == l;
+        } else if (a instanceof Double d && b instanceof Long l) {
+            return isLongValued(d) && (long) (double) d == l;
         } else {
             return a.equals(b);
         }
     }
 
+    /**
+     * lox 的数字在内部有两种表示：整数字面量和保持整数的运算（+、-、* 没有溢出）产生 Long，其他的是 Double。
+     * 两者对 lox 代码是同一种类型，值相同时也相等
+     */
+    static boolean isNumber(Object value) {
+        return value instanceof Long || value instanceof Double;
+    }
+
+    /**
+     * 判断一个 double 是否恰好等于某个 long。Long 与 Double 比较时，先用它判断，再作为 long 比较，
+     * 而不是把 long 转换为 double：绝对值超过 2^53 的不同整数转换之后可能相同。
+     * -0 被排除在外：与两个 Double 的比较相同，0 与 -0 不相等
+     */
+    static boolean isLongValued(double d) {
+        return d == Math.rint(d) && d >= -0x1p63 && d < 0x1p63 && (d != 0 || 1 / d > 0);
+    }
+
+    /**
+     * @param value 一个数字，见 {@link #isNumber}
+     */
+    static double toDouble(Object value) {
+        return value instanceof Long l ? (double) l : (double) value;
+    }
+
     private void checkNumberOperand(Token operator, Object... operands) {
         for (Object operand : operands) {
-            if (!(operand instanceof Double)) {
+            if (!isNumber(operand)) {
                 throw new LoxRuntimeError(operator, "the operator expects number operand ");
             }
         }
@@ -149,7 +313,10 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
      * @param value any object
      * @return -1 if not valid
      */
-    private int validUint(Object value) {
+    static int validUint(Object value) {
+        if (value instanceof Long l) {
+            return l >= 0 ? (int) Math.min(l, Integer.MAX_VALUE) : -1;
+        }
         if (!(value instanceof Double)) {
             return -1;
         }
@@ -171,6 +338,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (object == null)
             return "nil";
 
+        if (object instanceof Long l) {
+            // 与值相同的 Double 输出相同的内容。不能用 Math.abs：Long.MIN_VALUE 的绝对值依然是负数
+            if (l > -10_000_000 && l < 10_000_000) {
+                return l.toString();
+            }
+            // 超过 2^53 之后，不能被 double 精确表示的整数输出所有的数字，否则会输出一个它并不等于的值。
+            // 2^63 - 1 转换为 double 之后是 2^63，再转换回 long 时被截断为 2^63 - 1，因此要单独排除
+            double d = l;
+            return d != 0x1p63 && (long) d == l ? stringify(d) : l.toString();
+        }
+
         if (object instanceof Double) {
             String text = object.toString();
             if (text.endsWith(".0")) {
@@ -182,17 +360,36 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return object.toString();
     }
 
+    /**
+     * 与 {@link #stringify} 相同，但直接追加到 sb 中。绝对值小于 1e7 的整数不经过 {@link Double#toString} 和中间的字符串
+     */
+    static void stringifyTo(StringBuilder sb, Object object) {
+        if (object instanceof Long l && l > -10_000_000 && l < 10_000_000) {
+            sb.append((long) l);
+            return;
+        } else if (object instanceof Double d) {
+            double value = d;
+            if (value == (long) value && Math.abs(value) < 1e7 && (value != 0 || 1 / value > 0)) {
+                sb.append((long) value);
+                return;
+            }
+        } else if (object instanceof String s) {
+            sb.append(s);
+            return;
+        }
+        sb.append(stringify(object));
+    }
+
 
     // 特指变量赋值。
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        return varAssignHelper(expr, expr.name, value);
+        return varAssignHelper(expr.depth, expr.name, value);
     }
 
-    public Object varAssignHelper(Expr expr, Token varName, Object value) {
-        Integer distance = locals.get(expr);
-        if (distance == null) {
+    public Object varAssignHelper(int distance, Token varName, Object value) {
+        if (distance < 0) {
 //            global.assign(varName, value);
             environment.assign(varName, value);
         } else {
@@ -201,6 +398,26 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return value;
     }
 
+    /**
+     * 算术运算的结果都要被装箱为 Double。开启了 {@link LoxMetrics} 时记录装箱的次数
+     */
+    private static Object boxed(double value) {
+        if (LoxMetrics.ENABLED) {
+            LoxMetrics.boxedDoubles.increment();
+        }
+        return value;
+    }
+
+    /**
+     * 保持整数的运算结果被装箱为 Long。-128 到 127 之间的值来自 {@link Long#valueOf} 的缓存，不会分配，因此不被记录
+     */
+    private static Object boxed(long value) {
+        if (LoxMetrics.ENABLED && (value < -128 || value > 127)) {
+            LoxMetrics.boxedLongs.increment();
+        }
+        return value;
+    }
+
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
         Object left = evaluate(expr.left);
@@ -208,8 +425,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Token operator = expr.operator;
         switch (expr.operator.type) {
             case TokenType.PLUS:
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left + (double) right;
+                if (left instanceof Double a && right instanceof Double b) {
+                    return boxed(a + b);
+                } else if (left instanceof Long a && right instanceof Long b) {
+                    long sum = a + b;
+                    // 溢出时两个操作数的符号相同而结果的符号不同
+                    return ((a ^ sum) & (b ^ sum)) < 0 ? boxed((double) a + (double) b) : boxed(sum);
+                } else if (isNumber(left) && isNumber(right)) {
+                    return boxed(toDouble(left) + toDouble(right));
                 } else if (left instanceof String && right instanceof String) {
                     return left + (String) right;
                 } else if (left instanceof String) {
@@ -219,26 +442,45 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 }
                 throw new LoxRuntimeError(operator, "the operands do not support addition");
             case TokenType.MINUS:
+                if (left instanceof Double a && right instanceof Double b) {
+                    return boxed(a - b);
+                }
                 checkNumberOperand(operator, left, right);
-                return (double) left - (double) right;
+                if (left instanceof Long a && right instanceof Long b) {
+                    long difference = a - b;
+                    return ((a ^ b) & (a ^ difference)) < 0 ? boxed((double) a - (double) b) : boxed(difference);
+                }
+                return boxed(toDouble(left) - toDouble(right));
             case TokenType.STAR:
+                if (left instanceof Double a && right instanceof Double b) {
+                    return boxed(a * b);
+                }
                 checkNumberOperand(operator, left, right);
-                return (double) left * (double) right;
+                if (left instanceof Long a && right instanceof Long b) {
+                    long high = Math.multiplyHigh(a, b);
+                    long product = a * b;
+                    if (high != product >> 63) {
+                        return boxed((double) a * (double) b);
+                    }
+                    // 0 乘以负数在 double 中是 -0
+                    return product == 0 && (a ^ b) < 0 ? boxed(-0.0) : boxed(product);
+                }
+                return boxed(toDouble(left) * toDouble(right));
             case TokenType.SLASH:
                 checkNumberOperand(operator, left, right);
-                return (double) left / (double) right;
+                return boxed(toDouble(left) / toDouble(right));
             case TokenType.GREATER:
                 checkNumberOperand(operator, left, right);
-                return (double) left > (double) right;
+                return left instanceof Long a && right instanceof Long b ? a > b : toDouble(left) > toDouble(right);
             case TokenType.GREATER_EQUAL:
                 checkNumberOperand(operator, left, right);
-                return (double) left >= (double) right;
+                return left instanceof Long a && right instanceof Long b ? a >= b : toDouble(left) >= toDouble(right);
             case TokenType.LESS:
                 checkNumberOperand(operator, left, right);
-                return (double) left < (double) right;
+                return left instanceof Long a && right instanceof Long b ? a < b : toDouble(left) < toDouble(right);
             case TokenType.LESS_EQUAL:
                 checkNumberOperand(operator, left, right);
-                return (double) left <= (double) right;
+                return left instanceof Long a && right instanceof Long b ? a <= b : toDouble(left) <= toDouble(right);
             case TokenType.EQUAL_EQUAL:
                 return isEqual(left, right);
             case TokenType.BANG_EQUAL:
@@ -317,14 +559,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             return !isTrue(right);
         } else if (expr.operator.type == TokenType.MINUS) {
             checkNumberOperand(expr.operator, right);
-            return -(double) right;
+            if (right instanceof Long l && l != 0 && l != Long.MIN_VALUE) {
+                return boxed(-l);
+            }
+            return boxed(-toDouble(right));
         }
         return null;
     }
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookupVariable(expr, expr.name);
+        return lookupVariable(expr.depth, expr.name);
     }
 
     @Override
@@ -338,7 +583,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookupVariable(expr, expr.keyword);
+        return lookupVariable(expr.depth, expr.keyword);
     }
 
     @Override
@@ -354,7 +599,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             dimensions[i] = len;
         }
 
-        return new LoxArray(dimensions);
+        return new LoxArray(arrayClass, dimensions);
     }
 
     @Override
@@ -406,7 +651,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         for (Expr e : expr.exprList) {
             valueList.add(evaluate(e));
         }
-        return new LoxArray(valueList);
+        return new LoxArray(arrayClass, valueList);
     }
 
     /**
@@ -436,9 +681,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         for (int i = 0; i < leftSize; i++) {
             Expr left = expr.left.exprList.get(i); //
             Object value = arr.getAtIndex(i);
-            if (left instanceof Expr.Variable) {
+            if (left instanceof Expr.Variable variable) {
                 // 如果左侧是变量，则进行变量赋值
-                varAssignHelper(left, ((Expr.Variable) left).name, value);
+                varAssignHelper(variable.depth, variable.name, value);
             } else if (left instanceof Expr.Get) {
                 // 如果左侧是对象取字段，那么修改对象字段
                 Expr.Get temp = (Expr.Get) left;
@@ -467,7 +712,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        Object o = lookupVariable(expr, expr.superKeyword);
+        Object o = lookupVariable(expr.depth, expr.superKeyword);
         if (!(o instanceof LoxClass)) {
             throw new LoxRuntimeError(expr.superKeyword, "The super refers to a non class object! This is a implementation error");
         }
@@ -487,7 +732,20 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        Environment newEnv = new Environment(this.environment);
+        if (!stmt.scoped) {
+            for (Stmt statement : stmt.statements) {
+                execute(statement);
+            }
+            return null;
+        }
+        Environment newEnv;
+        if (stmt == loopBlock) {
+            // 上一次迭代留下的变量必须清除：赋值给未 resolve 的变量时，会沿着环境链按名字查找
+            newEnv = loopEnvironment;
+            newEnv.values.clear();
+        } else {
+            newEnv = new Environment(this.environment);
+        }
         executeWithEnvironment(stmt.statements, newEnv);
         return null;
     }
@@ -532,26 +790,26 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             if (staticVariable.initializer != null) {
                 value = evaluate(staticVariable.initializer);
             }
-            environment.define(staticVariable.name.lexeme, value); // 环境定义
+            environment.define(staticVariable.name.lexeme, staticVariable.captured ? new Environment.Cell(value) : value); // 环境定义
             staticFields.put(staticVariable.name.lexeme, value); // 字段添加
         }
 
         environment.define("super", superclass);
 
-        LoxClass loxClass = new LoxClass(stmt.name.lexeme, methods, staticFields, superclass);
+        LoxClass loxClass = new LoxClass(stmt.name.lexeme, methods, staticFields, superclass, originClass);
         this.environment = oldEnv;
 
-        environment.define(stmt.name.lexeme, loxClass);
+        environment.define(stmt.name.lexeme, stmt.captured ? new Environment.Cell(loxClass) : loxClass);
         return null;
     }
 
     @Override
     public Void visitExpressionStmt(Stmt.Expression stmt) {
         Object value = evaluate(stmt.expression);
-        if (Lox.repl) {
+        if (context.repl) {
             // in repl mode, a non-assignment expression statement will print out the expression result
             if (value != null && ! Expr.isAssignment(stmt.expression)) {
-                System.out.println(stringify(value));
+                context.out.println(value);
             }
         }
         return null;
@@ -559,11 +817,33 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
+        if (!stmt.captured) {
+            environment.define(stmt.name.lexeme, new LoxFunction(stmt, closureOf(stmt), false));
+            return null;
+        }
+        // 先定义 cell 再创建函数，递归的扁平闭包才能捕获它自己
+        Environment.Cell cell = new Environment.Cell(null);
+        environment.define(stmt.name.lexeme, cell);
+        cell.value = new LoxFunction(stmt, closureOf(stmt), false);
         return null;
     }
 
+    /**
+     * @return 在当前环境中定义的函数 stmt 的闭包。扁平的闭包（见 {@link LoxResolver#flatten}）是顶层环境之下的一层新环境，
+     * 其中只有函数引用到的外层局部变量，它们都是与定义它们的环境共享的 {@link Environment.Cell}；其他函数的闭包是当前的整个环境链
+     */
+    private Environment closureOf(Stmt.Function stmt) {
+        if (stmt.upvalues == null) {
+            return environment;
+        }
+        Environment closure = new Environment(environment.ancestor(stmt.globalDepth));
+        for (int i = 0; i < stmt.upvalues.length; i++) {
+            String name = stmt.upvalues[i];
+            closure.values.put(name, environment.ancestor(stmt.upvalueDepths[i]).values.get(name));
+        }
+        return closure;
+    }
+
     @Override
     public Void visitIfStmt(Stmt.If stmt) {
         if (isTrue(evaluate(stmt.condition))) {
@@ -576,8 +856,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
-        Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        context.out.println(evaluate(stmt.expression));
         return null;
     }
 
@@ -596,18 +875,55 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.lexeme, value);
+        environment.define(stmt.name.lexeme, stmt.captured ? new Environment.Cell(value) : value);
         return null;
     }
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
-        while (isTrue(evaluate(stmt.condition))) {
-            execute(stmt.body);
+        if (stmt.reused == null) {
+            while (isTrue(evaluate(stmt.condition))) {
+                execute(stmt.body);
+                safepoint();
+            }
+            return null;
+        }
+        Stmt.Block oldBlock = loopBlock;
+        Environment oldEnvironment = loopEnvironment;
+        loopBlock = stmt.reused;
+        loopEnvironment = new Environment(this.environment);
+        try {
+            while (isTrue(evaluate(stmt.condition))) {
+                execute(stmt.body);
+                safepoint();
+            }
+        } finally {
+            loopBlock = oldBlock;
+            loopEnvironment = oldEnvironment;
         }
         return null;
     }
 
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        Object value = stmt.value == null ? null : evaluate(stmt.value);
+        if (generator == null) {
+            throw new LoxRuntimeError(stmt.keyword, "the yield keyword is only allowed inside a generator");
+        }
+        generator.yield(value);
+        return null;
+    }
+
+    /**
+     * 循环的回边和函数调用处的检查点。每 {@link LoxLimits#CHECK_INTERVAL} 步检查一次执行限制
+     */
+    void safepoint() {
+        if (--fuel <= 0) {
+            fuel = LoxLimits.CHECK_INTERVAL;
+            context.limits.check(this);
+        }
+    }
+
     @Override
     public Void visitVarTupleStmt(Stmt.VarTuple stmt) {
         // 将先左侧的所有值定义
@@ -623,16 +939,21 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
         String pathString = stmt.path.literal.toString();
         String moduleName = Path.of(pathString).getFileName().toString();
+        LoxEvents.Import event = null;
+        if (LoxEvents.IMPORT.isEnabled()) {
+            event = new LoxEvents.Import();
+            event.begin();
+        }
         try {
-            Environment moduleEnv = importModule(stmt.path.literal.toString());
+            Environment moduleEnv = importModule(stmt.path, event);
 
             if (stmt.items.isEmpty()) {
                 // 如果是 import "huhu"; 式的全部导入，那么在当前环境中创建一个 huhu 对象。
                 if (stmt.moduleAlias == null) {
-                    LoxInstance module = new LoxInstance.LoxModule(moduleName, moduleEnv);
+                    LoxInstance module = new LoxInstance.LoxModule(moduleName, moduleEnv, originClass);
                     this.environment.define(moduleName, module);
                 } else {
-                    LoxInstance module = new LoxInstance.LoxModule(stmt.moduleAlias, moduleEnv);
+                    LoxInstance module = new LoxInstance.LoxModule(stmt.moduleAlias, moduleEnv, originClass);
                     this.environment.define(stmt.moduleAlias, module);
                 }
             } else {
@@ -648,46 +969,288 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         } catch (IOException e) {
             throw new LoxRuntimeError(stmt.path, "No module found at the given path");
+        } finally {
+            if (event != null) {
+                event.path = pathString;
+                event.line = stmt.path.line;
+                event.commit();
+            }
         }
         return null;
     }
 
+    /**
+     * <p>先取出所有的元素，再由 {@link LoxCollections#runChunks} 把它们均匀地切分为若干块，交给 fork-join 线程池执行。</p>
+     * 每一块使用一个 fork 出来的 interpreter，每个元素的循环体都在一个新的、只包含循环变量的环境中执行。
+     * resolver 保证了循环体只给循环内部的变量和数组元素赋值，因此不同的块之间不需要同步。
+     * 所有的块结束之后语句才结束；如果有块出错，抛出其中第一个块的错误。
+     */
+    @Override
+    public Void visitParallelWithStmt(Stmt.ParallelWith stmt) {
+        List<Object> items = parallelItems(evaluate(stmt.iterable), stmt.keyword);
+        Environment closure = this.environment;
+        List<Stmt> body = List.of(stmt.body);
+        LoxCollections.runChunks(this, items.size(), (worker, index, from, to) -> {
+            for (int i = from; i < to; i++) {
+                Environment env = new Environment(closure);
+                env.define(stmt.name.lexeme, items.get(i));
+                worker.executeWithEnvironment(body, env);
+            }
+        });
+        return null;
+    }
+
+    /**
+     * Array、range 和 List 直接读取其中的元素，其他对象按照 iter/hasNext/next 协议在当前线程上依次取出
+     */
+    private List<Object> parallelItems(Object iterable, Token keyword) {
+        List<Object> items = new ArrayList<>();
+        if (iterable instanceof LoxArray array) {
+            for (int i = 0; i < array.getLength(); i++) {
+                items.add(array.getAtIndex(i));
+            }
+        } else if (iterable instanceof LoxInstance instance && instance.getLoxClass() == rangeClass
+                && isNumber(instance.get("limit"))) {
+            double limit = toDouble(instance.get("limit"));
+            for (long i = 0; i < limit; i++) {
+                items.add(i);
+            }
+        } else if (iterable instanceof LoxInstance instance && instance.getLoxClass() == listClass
+                && instance.get("backing") instanceof LoxArray backing && isNumber(instance.get("size"))) {
+            double size = toDouble(instance.get("size"));
+            for (int i = 0; i < size; i++) {
+                items.add(backing.getAtIndex(i));
+            }
+        } else if (iterable instanceof LoxInstance instance && instance.contains("iter")
+                && instance.get("iter") instanceof LoxCallable iterFun
+                && iterFun.call(this, new ArrayList<>()) instanceof LoxInstance iter) {
+            LoxCallable hasNext = (LoxCallable) iter.get("hasNext");
+            LoxCallable next = (LoxCallable) iter.get("next");
+            while (isTrue(hasNext.call(this, new ArrayList<>()))) {
+                items.add(next.call(this, new ArrayList<>()));
+            }
+        } else {
+            throw new LoxRuntimeError(keyword, "parallel with needs an Array, a range, a List or an object with iter()");
+        }
+        return items;
+    }
+
     /**
      * 该函数用于导入内建的特殊 lox 文件。这里的文件名是相对于 class 的
      */
     private Environment importResource(String pathString) throws IOException {
-        InputStream is = Interpreter.class.getResourceAsStream(pathString);
-        BufferedReader br = new BufferedReader(new InputStreamReader(is));
-        StringBuilder sb = new StringBuilder();
-        char[] chars = new char[1024];
-        int len;
-        while ((len = br.read(chars)) != -1) {
-            sb.append(new String(chars, 0, len));
+        LoxEvents.Bootstrap event = null;
+        if (LoxEvents.BOOTSTRAP.isEnabled()) {
+            event = new LoxEvents.Bootstrap();
+            event.begin();
+        }
+        List<Stmt> statements = bootstrapStatements.get(pathString);
+        if (statements == null) {
+            InputStream is = Interpreter.class.getResourceAsStream(pathString);
+            BufferedReader br = new BufferedReader(new InputStreamReader(is));
+            StringBuilder sb = new StringBuilder();
+            char[] chars = new char[1024];
+            int len;
+            while ((len = br.read(chars)) != -1) {
+                sb.append(new String(chars, 0, len));
+            }
+            String src = sb.toString();
+            br.close();
+            statements = compileModule(src, null);
+            List<Stmt> existing = bootstrapStatements.putIfAbsent(pathString, statements);
+            if (existing != null) {
+                statements = existing;
+            }
+        }
+        Environment moduleEnv = new Environment("");
+        executeWithEnvironment(statements, moduleEnv);
+        if (event != null) {
+            event.module = pathString;
+            event.commit();
         }
-        String src = sb.toString();
-        br.close();
-        return runSrc(src,"");
+        return moduleEnv;
     }
 
     /**
      * 该函数用于导入普通的模块。
-     * @param pathString 不能带有.lox。该函数会自动添加。这里的文件名是相对于当前lox 环境的。
+     * 每个模块在一个 interpreter 中只会被执行一次：之后的导入直接共享第一次执行得到的环境，因此顶层的副作用只发生一次，
+     * 不同的导入者看到的也是同一批类。如果一个模块在执行完成之前又被（间接地）导入，那么产生循环导入的错误。
+     * <p>importLock 只在读取和修改 modules、loadingModules 时持有，模块的编译和执行不持有任何锁，因此不同任务的导入可以同时进行，
+     * 模块的顶层代码也可以 spawn 一个导入其他模块的任务并等待它。一个模块正在被另一个任务加载时，等待它加载完成。
+     * 如果这次等待会形成环（对方直接或者间接地在等待当前任务正在加载的模块），那么同样是循环导入的错误，而不是死锁。
+     * 模块的顶层代码通过 join 等待一个任务，而这个任务又在等待这个模块时，依然会死锁，因为 import 看不到 join。
+     * @param pathToken 它的字面量不能带有.lox。该函数会自动添加。这里的文件名是相对于当前lox 环境的。
+     * @param event 正在录制 jlox.Import 时，各个阶段的耗时被记录在其中。否则为 null
      */
-    private Environment importModule(String pathString) throws IOException {
+    private Environment importModule(Token pathToken, LoxEvents.Import event) throws IOException {
         // the resolver assures that the path does not end with .lox
-        Path path = Path.of(this.environment.getDir(), pathString+".lox");
-        String moduleSrc = Files.readString(path);
-        return runSrc(moduleSrc, path.getParent().toString());
+        Path path = Path.of(this.environment.getDir(), pathToken.literal + ".lox").toRealPath();
+        while (true) {
+            ModuleLoad load;
+            boolean owner = false;
+            importLock.lock();
+            try {
+                load = modules.get(path);
+                if (load == null) {
+                    load = new ModuleLoad(this);
+                    modules.put(path, load);
+                    loadingModules.add(path);
+                    owner = true;
+                } else if (!load.result.isDone()) {
+                    String cycle = findImportCycle(path);
+                    if (cycle != null) {
+                        throw new LoxRuntimeError(pathToken, "circular import: " + cycle);
+                    }
+                    awaitedModule = path;
+                }
+            } finally {
+                importLock.unlock();
+            }
+            if (owner) {
+                return loadModule(path, load, event);
+            }
+            Environment loaded = load.result.isDone() ? load.result.getNow(null) : awaitModule(load, pathToken);
+            if (loaded != null) {
+                if (event != null) {
+                    event.origin = "registry";
+                }
+                return loaded;
+            }
+            // 加载它的任务出错了，由这个任务重新加载，报告它自己的错误
+        }
     }
 
-    private Environment runSrc(String moduleSrc, String moduleDir) {
-        List<Token> tokens = new LoxScanner(moduleSrc).scanTokens();
-        List<Stmt> statements = new LoxParser(tokens).parse();
-        new LoxResolver(this).resolve(statements);
+    /**
+     * 等待另一个任务加载完模块
+     * @return 模块的环境。如果加载失败，为 null
+     */
+    private Environment awaitModule(ModuleLoad load, Token pathToken) {
+        try {
+            return load.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LoxRuntimeError(pathToken, "interrupted while waiting for a module");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e); // result 只会正常地完成
+        } finally {
+            importLock.lock();
+            awaitedModule = null;
+            importLock.unlock();
+        }
+    }
 
-        Environment moduleEnv = new Environment(moduleDir);
-        executeWithEnvironment(statements, moduleEnv);
-        return moduleEnv;
+    /**
+     * 判断等待 path 的加载是否会形成环：沿着“正在加载某个模块的 interpreter 在等待的模块”走下去，
+     * 如果走到了当前 interpreter 的导入链（loadingModules）中的模块，那么就会形成环。调用者必须持有 importLock
+     * @return 环中的模块，形如 {@code a.lox -> b.lox -> a.lox}。不会形成环时为 null
+     */
+    private String findImportCycle(Path path) {
+        List<Path> cycle = new ArrayList<>();
+        Path next = path;
+        while (!loadingModules.contains(next)) {
+            ModuleLoad load = modules.get(next);
+            if (load == null || load.result.isDone() || load.loader.awaitedModule == null) {
+                return null;
+            }
+            Path loading = next;
+            load.loader.loadingModules.stream().dropWhile(p -> !p.equals(loading)).forEach(cycle::add);
+            next = load.loader.awaitedModule;
+        }
+        Path target = next;
+        return Stream.of(loadingModules.stream().dropWhile(p -> !p.equals(target)), cycle.stream(), Stream.of(target))
+                .flatMap(paths -> paths)
+                .map(p -> p.getFileName().toString())
+                .collect(Collectors.joining(" -> "));
+    }
+
+    /**
+     * 编译并执行一个由当前 interpreter 负责加载的模块，然后把结果交给等待它的其他任务
+     */
+    private Environment loadModule(Path path, ModuleLoad load, LoxEvents.Import event) throws IOException {
+        Environment moduleEnv = null;
+        try {
+            long start = event == null ? 0 : System.nanoTime();
+            List<Stmt> statements;
+            LoxModulePrefetcher.Module prefetched = prefetcher.take(path);
+            if (prefetched == null) {
+                statements = compileModule(Files.readString(path), event);
+            } else if (prefetched.resolved) {
+                if (event != null) {
+                    event.origin = "cache";
+                }
+                statements = prefetched.statements;
+            } else {
+                if (event != null) {
+                    event.origin = "prefetch";
+                }
+                statements = resolveModule(prefetched.source, prefetched.statements);
+            }
+            long compiled = event == null ? 0 : System.nanoTime();
+            moduleEnv = new Environment(path.getParent().toString());
+            executeWithEnvironment(statements, moduleEnv);
+            if (event != null) {
+                event.compileTime = compiled - start;
+                event.executeTime = System.nanoTime() - compiled;
+            }
+            if (LoxMetrics.ENABLED) {
+                LoxMetrics.imports.increment();
+            }
+            return moduleEnv;
+        } catch (Throwable e) {
+            moduleEnv = null;
+            throw e;
+        } finally {
+            importLock.lock();
+            try {
+                loadingModules.remove(path);
+                if (moduleEnv == null) {
+                    modules.remove(path); // 加载失败的模块可以被再次导入
+                }
+            } finally {
+                importLock.unlock();
+            }
+            load.result.complete(moduleEnv);
+        }
+    }
+
+    /**
+     * 把模块的源码转化为 resolve 之后的语句列表。优先从 {@link LoxModuleCache} 中读取，命中时完全跳过 scan、parse 和 resolve。
+     * 未命中时正常编译，并且只有在没有产生任何错误的情况下才写入缓存。
+     * @param event 不为 null 时，在其中记录模块的来源：cache 或者 sync
+     */
+    private List<Stmt> compileModule(String moduleSrc, LoxEvents.Import event) {
+        List<Stmt> cached = moduleCache.load(moduleSrc);
+        if (event != null) {
+            event.origin = cached != null ? "cache" : "sync";
+        }
+        if (cached != null) {
+            return cached;
+        }
+        return resolveModule(moduleSrc, null);
+    }
+
+    /**
+     * resolve 一个模块，并且只有在 parse 和 resolve 都没有产生任何错误的情况下才写入缓存。
+     * @param parsed 已经（在后台）解析好的语句列表。如果为 null，则在这里 scan + parse
+     */
+    private List<Stmt> resolveModule(String moduleSrc, List<Stmt> parsed) {
+        boolean hadErrorBefore = context.hadError;
+        context.hadError = false;
+        long time = LoxMetrics.now();
+        List<Stmt> statements = parsed;
+        if (statements == null) {
+            List<Token> tokens = new LoxScanner(moduleSrc).reportTo(context).scanTokens();
+            time = LoxMetrics.record(LoxMetrics.scanNanos, time);
+            statements = new LoxParser(tokens).reportTo(context).parse();
+            time = LoxMetrics.record(LoxMetrics.parseNanos, time);
+        }
+        new LoxResolver(this).resolve(statements);
+        LoxMetrics.record(LoxMetrics.resolveNanos, time);
+        if (!context.hadError) {
+            moduleCache.store(moduleSrc, statements);
+        }
+        context.hadError = hadErrorBefore || context.hadError;
+        return statements;
     }
 
     /**
@@ -709,6 +1272,24 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     private void setupNative() {
 
+        nativeObject.set("flush", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                interpreter.context.out.flush();
+                return null;
+            }
+
+            @Override
+            public String toString() {
+                return "<native: flush>";
+            }
+        });
+
         nativeObject.set("clock", new LoxCallable() {
             @Override
             public int arity() {
@@ -750,9 +1331,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             public Object call(Interpreter interpreter, List<Object> arguments) {
                 Object arg = arguments.getFirst();
                 if (arg instanceof LoxArray) {
-                    return (double)((LoxArray) arg).getLength();
+                    return (long) ((LoxArray) arg).getLength();
                 } else if (arg instanceof String) {
-                    return (double)((String) arg).length();
+                    return (long) ((String) arg).length();
                 } else {
                     return null;
                 }
@@ -773,8 +1354,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
                 String str = (String) arguments.get(0);
-                Double index = (Double) arguments.get(1);
-                int i = validUint(index);
+                int i = validUint(arguments.get(1));
                 if (i < 0) {
                     return null;
                 }else {
@@ -796,7 +1376,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
                 Object o = arguments.getFirst();
-                if (o instanceof Double) {
+                if (isNumber(o)) {
                     return "<Number>";
                 } else if (o instanceof String) {
                     return "<String>";
@@ -807,7 +1387,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 } else if (o instanceof LoxClass) {
                     return "<Class>";
                 } else if (o instanceof LoxInstance) {
-                    return "<%s>".formatted(((LoxInstance) o).getLoxClass().name);
+                    return "<%s>".formatted(((LoxInstance) o).typeName());
                 } else {
                     throw new LoxRuntimeError(null, "Invalid argument for native.type");
                 }
@@ -865,13 +1445,412 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         });
 
+        nativeObject.set("spawn", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object function = arguments.getFirst();
+                if (!(function instanceof LoxCallable callable) || callable.arity() != 0) {
+                    throw new LoxRuntimeError(null, "%s is not a function without parameters".formatted(stringify(function)));
+                }
+                return LoxTask.spawn(interpreter, callable);
+            }
+
+            @Override
+            public String toString() {
+                return "<native: spawn>";
+            }
+        });
+
+        nativeObject.set("channel", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                int capacity = validUint(arguments.getFirst());
+                if (capacity <= 0) {
+                    throw new LoxRuntimeError(null, "the capacity of a channel must be a positive integer, but got %s".formatted(stringify(arguments.getFirst())));
+                }
+                return new LoxChannel(capacity);
+            }
+
+            @Override
+            public String toString() {
+                return "<native: channel>";
+            }
+        });
+
+        // memoize(fn, maxEntries, ttl)：ttl 为 nil 时结果不会过期，否则为毫秒数
+        nativeObject.set("memoize", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 3;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (!(arguments.get(0) instanceof LoxCallable fn)) {
+                    throw new LoxRuntimeError(null, "memoize expects a callable, but got " + stringify(arguments.get(0)));
+                }
+                int maxEntries = validUint(arguments.get(1));
+                if (maxEntries < 1) {
+                    throw new LoxRuntimeError(null, "memoize expects a positive integer as maxEntries, but got " + stringify(arguments.get(1)));
+                }
+                long ttl = 0;
+                if (arguments.get(2) != null) {
+                    // 不足 1 毫秒的 ttl 会被截断为 0，而 0 表示永不过期
+                    if (!isNumber(arguments.get(2)) || toDouble(arguments.get(2)) < 1 || toDouble(arguments.get(2)) % 1 != 0) {
+                        throw new LoxRuntimeError(null, "memoize expects nil or a positive integer number of milliseconds as ttl, but got " + stringify(arguments.get(2)));
+                    }
+                    ttl = (long) toDouble(arguments.get(2));
+                }
+                return new LoxMemo(fn, maxEntries, ttl);
+            }
+
+            @Override
+            public String toString() {
+                return "<native: memoize>";
+            }
+        });
+    }
+
+    /**
+     * perf 模块的底层函数。名字都以 perf 开头，lox 代码通常通过 LoxPerf.lox 中的 perf 模块使用它们
+     */
+    private void setupPerfNative() {
+
+        nativeObject.set("perfNow", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return (double) perf.now();
+            }
+
+            @Override
+            public String toString() {
+                return "<native: perfNow>";
+            }
+        });
+
+        nativeObject.set("perfCount", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                String name = perfName(arguments.get(0));
+                if (!isNumber(arguments.get(1))) {
+                    throw new LoxRuntimeError(null, "%s is not a number".formatted(stringify(arguments.get(1))));
+                }
+                return perf.count(name, (long) toDouble(arguments.get(1)));
+            }
+
+            @Override
+            public String toString() {
+                return "<native: perfCount>";
+            }
+        });
+
+        nativeObject.set("perfCounter", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return perf.counter(perfName(arguments.getFirst()));
+            }
+
+            @Override
+            public String toString() {
+                return "<native: perfCounter>";
+            }
+        });
+
+        nativeObject.set("perfRecord", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                String name = perfName(arguments.get(0));
+                if (!isNumber(arguments.get(1))) {
+                    throw new LoxRuntimeError(null, "%s is not a number".formatted(stringify(arguments.get(1))));
+                }
+                perf.record(name, (long) toDouble(arguments.get(1)));
+                return null;
+            }
+
+            @Override
+            public String toString() {
+                return "<native: perfRecord>";
+            }
+        });
+
+        nativeObject.set("perfStats", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return perf.stats(perfName(arguments.getFirst()), originClass);
+            }
+
+            @Override
+            public String toString() {
+                return "<native: perfStats>";
+            }
+        });
+
+        nativeObject.set("perfSnapshot", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return LoxPerf.snapshot(originClass);
+            }
+
+            @Override
+            public String toString() {
+                return "<native: perfSnapshot>";
+            }
+        });
+
+        nativeObject.set("perfReset", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                perf.reset();
+                return null;
+            }
+
+            @Override
+            public String toString() {
+                return "<native: perfReset>";
+            }
+        });
+    }
+
+    private static String perfName(Object name) {
+        if (!(name instanceof String)) {
+            throw new LoxRuntimeError(null, "%s needs to be a string".formatted(stringify(name)));
+        }
+        return (String) name;
+    }
+
+    /**
+     * 数组上的高阶函数，见 {@link LoxCollections}。前两个参数总是一个数组和需要处理的元素个数，
+     * Array 传入它自己和它的长度，List 传入它的 backing 数组和 size
+     */
+    private void setupCollectionNative() {
+
+        nativeObject.set("map", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 3;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return LoxCollections.map(interpreter, collectionArray(arguments), collectionLength(arguments), callback(arguments.get(2), 1));
+            }
+
+            @Override
+            public String toString() {
+                return "<native: map>";
+            }
+        });
+
+        nativeObject.set("filter", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 3;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return LoxCollections.filter(interpreter, collectionArray(arguments), collectionLength(arguments), callback(arguments.get(2), 1));
+            }
+
+            @Override
+            public String toString() {
+                return "<native: filter>";
+            }
+        });
+
+        nativeObject.set("reduce", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 4;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return LoxCollections.reduce(interpreter, collectionArray(arguments), collectionLength(arguments), callback(arguments.get(2), 2), arguments.get(3));
+            }
+
+            @Override
+            public String toString() {
+                return "<native: reduce>";
+            }
+        });
+
+        nativeObject.set("forEach", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 3;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxCollections.forEach(interpreter, collectionArray(arguments), collectionLength(arguments), callback(arguments.get(2), 1));
+                return null;
+            }
+
+            @Override
+            public String toString() {
+                return "<native: forEach>";
+            }
+        });
+
+        nativeObject.set("seq", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return LoxSeq.of(interpreter, arguments.getFirst());
+            }
+
+            @Override
+            public String toString() {
+                return "<native: seq>";
+            }
+        });
+
+        nativeObject.set("sum", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return LoxCollections.sum(collectionArray(arguments), collectionLength(arguments));
+            }
+
+            @Override
+            public String toString() {
+                return "<native: sum>";
+            }
+        });
+
+        nativeObject.set("parMap", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 3;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return LoxCollections.parMap(interpreter, collectionArray(arguments), collectionLength(arguments), callback(arguments.get(2), 1));
+            }
+
+            @Override
+            public String toString() {
+                return "<native: parMap>";
+            }
+        });
+
+        nativeObject.set("parFilter", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 3;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return LoxCollections.parFilter(interpreter, collectionArray(arguments), collectionLength(arguments), callback(arguments.get(2), 1));
+            }
+
+            @Override
+            public String toString() {
+                return "<native: parFilter>";
+            }
+        });
+
+        nativeObject.set("parReduce", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 4;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return LoxCollections.parReduce(interpreter, collectionArray(arguments), collectionLength(arguments), callback(arguments.get(2), 2), arguments.get(3));
+            }
+
+            @Override
+            public String toString() {
+                return "<native: parReduce>";
+            }
+        });
+    }
+
+    private static LoxArray collectionArray(List<Object> arguments) {
+        if (!(arguments.get(0) instanceof LoxArray array)) {
+            throw new LoxRuntimeError(null, "%s is not an array".formatted(stringify(arguments.get(0))));
+        }
+        return array;
+    }
+
+    private int collectionLength(List<Object> arguments) {
+        int length = validUint(arguments.get(1));
+        if (length < 0 || length > ((LoxArray) arguments.get(0)).getLength()) {
+            throw new LoxRuntimeError(null, "%s is not a valid length".formatted(stringify(arguments.get(1))));
+        }
+        return length;
+    }
+
+    private static LoxCallable callback(Object function, int arity) {
+        if (!(function instanceof LoxCallable callable) || callable.arity() != arity) {
+            throw new LoxRuntimeError(null, "%s is not a function with %d parameter(s)".formatted(stringify(function), arity));
+        }
+        return callable;
     }
 
     private void loadLoxOrigin() {
         try {
             Environment moduleEnv = importResource("/resources/LoxOrigin.lox");
             Object origin = moduleEnv.get("Origin");
-            LoxClass.origin = ((LoxClass) origin);
+            originClass = (LoxClass) origin;
             this.environment.define("Origin", origin);
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -882,20 +1861,34 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         try {
             Environment moduleEnv = importResource("/resources/LoxCore.lox");
             Object arr = moduleEnv.get("Array");
-            LoxArray.loxArrayClass = (LoxClass) arr;
+            arrayClass = (LoxClass) arr;
             this.environment.define("Array", arr);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * perf 模块以一个名为 perf 的模块对象的形式出现在全局环境中，就像是执行了 import "perf";
+     */
+    private void loadLoxPerf() {
+        try {
+            Environment moduleEnv = importResource("/resources/LoxPerf.lox");
+            this.environment.define("perf", new LoxInstance.LoxModule("perf", moduleEnv, originClass));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private void loadLoxLib() {
         try {
             Environment moduleEnv = importResource("/resources/LoxLib.lox");
-            List<String> imported = List.of("enum", "range", "is", "type", "List");
+            List<String> imported = List.of("enum", "range", "is", "type", "List", "spawn", "channel", "seq", "memoize", "memoizeTtl");
             for (String name : imported) {
                 this.environment.define(name, moduleEnv.get(name));
             }
+            listClass = (LoxClass) moduleEnv.get("List");
+            rangeClass = (LoxClass) moduleEnv.get("RangeObject");
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -1,121 +1,126 @@
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.file.Files;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * 命令行入口。运行时的状态都在 {@link LoxContext} 中，这里只负责解析参数、读取文件和设置退出码
+ */
 public class Lox {
 
-    public static boolean hadError = false;
-    public static boolean hadRuntimeError = false;
-    public static boolean repl = false; // 调用 runPrompt 的时候，该变量会被设为 true。这会导致返回值不为 nil 的表达式语句输出其值。
-
-    public static Interpreter interpreter = new Interpreter();
-
+    /**
+     * 用法：{@code lox [--stream] [--profile] [--max-steps n] [--timeout ms] [--max-alloc mb] [file]}
+     * <ul>
+     *     <li>没有文件参数时运行 repl</li>
+     *     <li>{@code --stream}：流式地运行文件，每解析出一个顶层语句就立即 resolve 并执行它，见 {@link LoxContext#runStream(CharSequence)}</li>
+     *     <li>{@code --profile}：运行文件的同时采样 lox 层面的调用栈，结束后把 collapsed stack 写入 {@code <文件名>.collapsed}，
+     *     并在 stderr 输出每个函数的 self/total 占比，见 {@link LoxProfiler}</li>
+     *     <li>{@code --max-steps n}、{@code --timeout ms}、{@code --max-alloc mb}：限制循环回边与函数调用的总数、运行时间、分配的内存，
+     *     超出时以运行时错误结束，见 {@link LoxLimits}。在 repl 中，限制分别作用于每一次输入</li>
+     *     <li>{@code lox bench ...}：运行基准测试，见 {@link LoxBench}</li>
+     * </ul>
+     */
     public static void main(String[] args) throws IOException {
-        if (args.length == 1) {
-            System.out.println("running file: " + args[0]);
+        LoxMetrics.register();
+        if (args.length > 0 && args[0].equals("bench")) {
+            LoxBench.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        boolean stream = false;
+        boolean profile = false;
+        LoxContext context = new LoxContext();
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--stream")) {
+                stream = true;
+            } else if (arg.equals("--profile")) {
+                profile = true;
+            } else if (arg.equals("--max-steps") || arg.equals("--timeout") || arg.equals("--max-alloc")) {
+                if (i + 1 >= args.length) {
+                    System.out.println("Error. Missing value for option: " + arg);
+                    return;
+                }
+                String value = args[++i];
+                try {
+                    switch (arg) {
+                        case "--max-steps" -> context.limits.setMaxSteps(Long.parseLong(value));
+                        case "--timeout" -> context.limits.setTimeoutMillis(Long.parseLong(value));
+                        default -> context.limits.setMaxAllocatedBytes(Long.parseLong(value) * 1024 * 1024);
+                    }
+                } catch (NumberFormatException e) {
+                    System.out.println("Error. Not a number: " + value);
+                    return;
+                }
+            } else if (arg.startsWith("--")) {
+                System.out.println("Error. Unknown option: " + arg);
+                return;
+            } else {
+                files.add(arg);
+            }
+        }
+        if (files.size() == 1) {
+            System.out.println("running file: " + files.getFirst());
             System.out.println();
-            runFile(args[0]);
-        } else if (args.length == 0) {
+            // System.exit 或者 spawn 的任务在运行结束后的输出
+            Runtime.getRuntime().addShutdownHook(new Thread(context.out::flush));
+            if (profile) {
+                context.interpreter.profiler = LoxProfiler.fromSystemProperty();
+                context.interpreter.profiler.start();
+            }
+            runFile(context, files.getFirst(), stream);
+        } else if (files.isEmpty() && !stream && !profile) {
             System.out.println("running prompt");
             System.out.println();
-            runPrompt();
+            context.runPrompt(new BufferedReader(new InputStreamReader(System.in)));
         } else {
             System.out.println("Error. You can have 0 argument to run the repl, or 1 argument to run a specific lox file");
         }
     }
 
     public static void runFile(String filename) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(filename));
-        String source = new String(bytes);
-        run(source);
-        if (hadError) {
-            System.exit(65);
-        }
-        if (hadRuntimeError) {
-            System.exit(70);
-        }
+        runFile(new LoxContext(), filename, false);
     }
 
-    /**
-     * REPL 模式下，如果补货到了 ReplPending 异常，说明在某个该有语句的地方没有语句。
-     * 此时我们会保存上一次的输入，然后重新读取输入。将这两次的输入合并在一起，一起重新解释。
-     * @throws IOException ???
-     */
-    public static void runPrompt() throws IOException {
-        repl = true;
-        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
-        String old = "";
-        while (true) {
-            if (old.isEmpty()) {
-                System.out.print("> ");
-            } else {
-                System.out.print("... ");
-            }
-            String line = reader.readLine();
-            if (line == null) {
-                System.out.println();
-                break;
-            }
-            try {
-                run(old + line);
-                old = "";
-            }catch (LoxParser.ReplPending e) {
-                old += line;
-                continue;
-            } catch (LoxParser.ParseError e) {
-                old = "";
-            }
-            hadError = false;
+    public static void runFile(LoxContext context, String filename, boolean stream) throws IOException {
+        if (stream) {
+            context.runStream(mapSource(filename));
+        } else {
+            context.run(mapSource(filename));
         }
-    }
-
-    public static void run(String source) {
-        LoxScanner scanner = new LoxScanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        LoxParser parser = new LoxParser(tokens);
-        List<Stmt> statements = parser.parse();
-        if (!hadError) {
-            LoxResolver resolver = new LoxResolver(interpreter);
-            resolver.resolve(statements);
-            if (!hadError) {
-                interpreter.interpret(statements);
-            }
+        if (context.interpreter.profiler != null) {
+            writeProfile(filename, context.interpreter.profiler);
+        }
+        if (context.hadError()) {
+            System.exit(65);
+        }
+        if (context.hadRuntimeError()) {
+            System.exit(70);
         }
     }
 
-    public static void parsingError(int line,String where, String message) {
-        report(line, where, "Parsing error: " + message);
-    }
-
-    public static void scanningError(int line, String where, String message) {
-        report(line, where, "Scanning error: " + message);
-    }
-
-    public static void resolvingError(int line, String where, String message) {
-        report(line, where, "Resolving error: " + message);
+    private static void writeProfile(String filename, LoxProfiler profiler) throws IOException {
+        profiler.stop();
+        Path out = Paths.get(Paths.get(filename).getFileName().toString().replaceFirst("\\.lox$", "") + ".collapsed");
+        profiler.writeCollapsed(out);
+        System.err.println();
+        profiler.printTable(System.err, 30);
+        System.err.println("collapsed stacks written to " + out);
     }
 
-
     /**
-     * 这个函数不是用来抛出运行时错误，而是当运行时错误被 catch 时，调用该函数向用户报告。
-     * @param error 捕获到的运行时错误
+     * 把文件映射到内存中，扫描器直接读取映射的字节，见 {@link LoxMappedSource}。源码不会被解码为 String 或者 CharBuffer，也不会被复制到堆上，
+     * 只有字符串字面量和标识符等 token 才会生成字符串。
      */
-    static void reportRuntimeError(LoxRuntimeError error) {
-        if (error.token != null) {
-            System.out.printf("[Line %d] Runtime error: %s: \"%s\"\n", error.token.line, error.getMessage(), error.token.lexeme);
-        } else {
-            System.out.printf("[Line Unknown] Runtime error: %s\n", error.getMessage());
+    static LoxMappedSource mapSource(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            return new LoxMappedSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
         }
-        hadRuntimeError = true;
     }
-
-    public static void report(int line, String where, String message) {
-        System.out.printf("[line %d] %s: \"%s\"\n", line, message, where);
-        hadError = true;
-    }
-
 }
-
@@ -3,27 +3,29 @@ import java.util.List;
 
 public class LoxArray extends LoxInstance{
     private final Object[] backing;
-    public static LoxClass loxArrayClass;
 
-    public LoxArray(int len) {
-        super(loxArrayClass);
+    /**
+     * @param arrayClass 所在的 interpreter 的 Array 类，见 {@link Interpreter#arrayClass}
+     */
+    public LoxArray(LoxClass arrayClass, int len) {
+        super(arrayClass);
         backing = new Object[len];
 //        this.set("length", (double) len);
     }
 
-    public LoxArray(int[] dimensions) {
-        this(dimensions[0]);
+    public LoxArray(LoxClass arrayClass, int[] dimensions) {
+        this(arrayClass, dimensions[0]);
         if (dimensions.length == 1) {
             return;
         }
         int[] remaining = Arrays.copyOfRange(dimensions, 1, dimensions.length);
         for (int i = 0; i < backing.length; i++) {
-            backing[i] = new LoxArray(remaining);
+            backing[i] = new LoxArray(arrayClass, remaining);
         }
     }
 
-    public LoxArray(List<Object> items) {
-        this(items.size());
+    public LoxArray(LoxClass arrayClass, List<Object> items) {
+        this(arrayClass, items.size());
         int len = items.size();
         for (int i = 0; i < len; i++) {
             backing[i] = items.get(i);
@@ -45,6 +47,9 @@ public class LoxArray extends LoxInstance{
 
     @Override
     public String toString() {
+        if (backing.length == 0) {
+            return "[]";
+        }
         StringBuilder sb = new StringBuilder();
         sb.append("[");
         for (Object item : backing) {
@@ -0,0 +1,784 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * <p>把 resolve 之后的语句列表编码为紧凑的二进制格式（.loxc），以及从中还原。</p>
+ * 每个节点以一个字节的 tag 开头，随后是它的各个字段。字符串经过一张字符串表去重，整数使用变长编码。
+ * Variable/Assign/This/Super 这几种节点额外记录了 resolver 计算出的深度（-1 表示留给运行时动态查找），
+ * 申明和函数节点记录了捕获分析的结果（见 {@link LoxResolver}），读取时直接写回节点上，因此读出的 AST 不需要再经过 {@link LoxResolver}。
+ */
+public class LoxAstCodec {
+
+    private static final int MAGIC = 0x4C4F5843; // "LOXC"
+
+    /**
+     * 格式版本。任何节点布局的改动都需要修改它。它和 TokenType 的全部名字一起构成 {@link #fingerprint()}
+     */
+    private static final int VERSION = 5;
+
+    private static final byte NULL = 0;
+
+    private static final byte EXPR_ASSIGN = 1;
+    private static final byte EXPR_BINARY = 2;
+    private static final byte EXPR_CALL = 3;
+    private static final byte EXPR_GET = 4;
+    private static final byte EXPR_GROUPING = 5;
+    private static final byte EXPR_LITERAL = 6;
+    private static final byte EXPR_LOGICAL = 7;
+    private static final byte EXPR_SET = 8;
+    private static final byte EXPR_UNARY = 9;
+    private static final byte EXPR_VARIABLE = 10;
+    private static final byte EXPR_FSTRING = 11;
+    private static final byte EXPR_THIS = 12;
+    private static final byte EXPR_ARRAY_CREATION = 13;
+    private static final byte EXPR_ARRAY_GET = 14;
+    private static final byte EXPR_ARRAY_SET = 15;
+    private static final byte EXPR_TUPLE = 16;
+    private static final byte EXPR_TUPLE_UNPACK = 17;
+    private static final byte EXPR_NATIVE = 18;
+    private static final byte EXPR_SUPER = 19;
+
+    private static final byte STMT_BLOCK = 32;
+    private static final byte STMT_CLASS = 33;
+    private static final byte STMT_EXPRESSION = 34;
+    private static final byte STMT_FUNCTION = 35;
+    private static final byte STMT_IF = 36;
+    private static final byte STMT_PRINT = 37;
+    private static final byte STMT_RETURN = 38;
+    private static final byte STMT_VAR = 39;
+    private static final byte STMT_WHILE = 40;
+    private static final byte STMT_VAR_TUPLE = 41;
+    private static final byte STMT_IMPORT = 42;
+    private static final byte STMT_PARALLEL_WITH = 43;
+    private static final byte STMT_YIELD = 44;
+
+    private static final byte VALUE_NIL = 0;
+    private static final byte VALUE_TRUE = 1;
+    private static final byte VALUE_FALSE = 2;
+    private static final byte VALUE_NUMBER = 3;
+    private static final byte VALUE_STRING = 4;
+    private static final byte VALUE_INTEGER = 5;
+
+    /**
+     * @return 描述当前编码格式的字节串。缓存的键包含它，因此格式或 TokenType 改变后，旧的缓存条目会自动失效
+     */
+    public static byte[] fingerprint() {
+        return (VERSION + ":" + Arrays.toString(TokenType.values())).getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static void write(List<Stmt> statements, DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        Writer writer = new Writer(out);
+        try {
+            writer.stmtList(statements);
+        } catch (UncheckedIOException e) {
+            // visitor 的方法不能抛出受检异常，所以在 Writer 内部包装，在这里拆开
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 读取过程不会触碰 interpreter，因此可以在其他线程上进行
+     * @throws IOException 如果数据不完整或者不是合法的 .loxc 格式
+     */
+    public static List<Stmt> read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a loxc stream");
+        }
+        Reader reader = new Reader(in);
+        return reader.readStmtList();
+    }
+
+    private static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final DataOutputStream out;
+        private final HashMap<String, Integer> strings = new HashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void expr(Expr expr) {
+            if (expr == null) {
+                tag(NULL);
+            } else {
+                expr.accept(this);
+            }
+        }
+
+        private void exprList(List<? extends Expr> exprs) {
+            varInt(exprs.size());
+            for (Expr expr : exprs) {
+                expr(expr);
+            }
+        }
+
+        private void stmt(Stmt stmt) {
+            if (stmt == null) {
+                tag(NULL);
+            } else {
+                stmt.accept(this);
+            }
+        }
+
+        private void stmtList(List<? extends Stmt> stmts) {
+            varInt(stmts.size());
+            for (Stmt stmt : stmts) {
+                stmt(stmt);
+            }
+        }
+
+        private void depth(int depth) {
+            varInt(depth + 1);
+        }
+
+        private void token(Token token) {
+            varInt(token.type.ordinal());
+            string(token.lexeme);
+            value(token.literal);
+            varInt(token.line + 1); // 自动补全的分号的行号为 -1
+        }
+
+        private void tokenList(List<Token> tokens) {
+            varInt(tokens.size());
+            for (Token token : tokens) {
+                token(token);
+            }
+        }
+
+        private void value(Object value) {
+            if (value == null) {
+                tag(VALUE_NIL);
+            } else if (value instanceof Boolean) {
+                tag((Boolean) value ? VALUE_TRUE : VALUE_FALSE);
+            } else if (value instanceof Double) {
+                tag(VALUE_NUMBER);
+                try {
+                    out.writeDouble((Double) value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else if (value instanceof Long) {
+                tag(VALUE_INTEGER);
+                try {
+                    out.writeLong((Long) value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else if (value instanceof String) {
+                tag(VALUE_STRING);
+                string((String) value);
+            } else {
+                throw new IllegalArgumentException("literal cannot be cached: " + value);
+            }
+        }
+
+        /**
+         * 字符串表：第一次出现时写出新的下标和内容，之后只写下标。下标 0 代表 null
+         */
+        private void string(String s) {
+            if (s == null) {
+                varInt(0);
+                return;
+            }
+            Integer index = strings.get(s);
+            if (index != null) {
+                varInt(index);
+                return;
+            }
+            index = strings.size() + 1;
+            strings.put(s, index);
+            varInt(index);
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            varInt(bytes.length);
+            try {
+                out.write(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void tag(byte tag) {
+            try {
+                out.writeByte(tag);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void varInt(int value) {
+            try {
+                while ((value & ~0x7F) != 0) {
+                    out.writeByte((value & 0x7F) | 0x80);
+                    value >>>= 7;
+                }
+                out.writeByte(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            tag(EXPR_ASSIGN);
+            token(expr.name);
+            expr(expr.value);
+            depth(expr.depth);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            tag(EXPR_BINARY);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            tag(EXPR_CALL);
+            expr(expr.callee);
+            token(expr.paren);
+            exprList(expr.arguments);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            tag(EXPR_GET);
+            expr(expr.object);
+            token(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            tag(EXPR_GROUPING);
+            expr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            tag(EXPR_LITERAL);
+            value(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            tag(EXPR_LOGICAL);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            tag(EXPR_SET);
+            expr(expr.object);
+            token(expr.name);
+            expr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            tag(EXPR_UNARY);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            tag(EXPR_VARIABLE);
+            token(expr.name);
+            depth(expr.depth);
+            return null;
+        }
+
+        @Override
+        public Void visitFStringExpr(Expr.FString expr) {
+            tag(EXPR_FSTRING);
+            string(expr.literal);
+            exprList(expr.exprList);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            tag(EXPR_THIS);
+            token(expr.keyword);
+            depth(expr.depth);
+            return null;
+        }
+
+        @Override
+        public Void visitArrayCreationExpr(Expr.ArrayCreationExpr expr) {
+            tag(EXPR_ARRAY_CREATION);
+            exprList(expr.lengthList);
+            token(expr.rightBracket);
+            return null;
+        }
+
+        @Override
+        public Void visitArrayGetExpr(Expr.ArrayGetExpr expr) {
+            tag(EXPR_ARRAY_GET);
+            expr(expr.array);
+            expr(expr.index);
+            token(expr.rightBracket);
+            return null;
+        }
+
+        @Override
+        public Void visitArraySetExpr(Expr.ArraySetExpr expr) {
+            tag(EXPR_ARRAY_SET);
+            expr(expr.array);
+            expr(expr.index);
+            expr(expr.value);
+            token(expr.rightBracket);
+            return null;
+        }
+
+        @Override
+        public Void visitTupleExpr(Expr.TupleExpr expr) {
+            tag(EXPR_TUPLE);
+            exprList(expr.exprList);
+            return null;
+        }
+
+        @Override
+        public Void visitTupleUnpackExpr(Expr.TupleUnpackExpr expr) {
+            tag(EXPR_TUPLE_UNPACK);
+            expr(expr.left);
+            expr(expr.right);
+            token(expr.equal);
+            return null;
+        }
+
+        @Override
+        public Void visitNativeExpr(Expr.Native expr) {
+            tag(EXPR_NATIVE);
+            token(expr.keyword);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            tag(EXPR_SUPER);
+            token(expr.superKeyword);
+            token(expr.methodName);
+            depth(expr.depth);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            tag(STMT_BLOCK);
+            stmtList(stmt.statements);
+            tag(stmt.scoped ? (byte) 1 : (byte) 0);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            tag(STMT_CLASS);
+            token(stmt.name);
+            stmtList(stmt.methods);
+            stmtList(stmt.staticMethods);
+            stmtList(stmt.staticVariables);
+            expr(stmt.superName);
+            tag(stmt.captured ? (byte) 1 : (byte) 0);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            tag(STMT_EXPRESSION);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            tag(STMT_FUNCTION);
+            token(stmt.name);
+            tokenList(stmt.params);
+            stmtList(stmt.body);
+            tag(stmt.generator ? (byte) 1 : (byte) 0);
+            tag(stmt.captured ? (byte) 1 : (byte) 0);
+            // 被捕获的参数的下标加一，以 0 结束
+            if (stmt.capturedParams != null) {
+                for (int i = 0; i < stmt.capturedParams.length; i++) {
+                    if (stmt.capturedParams[i]) {
+                        varInt(i + 1);
+                    }
+                }
+            }
+            varInt(0);
+            // 自由变量的个数加一，0 表示不是扁平的闭包
+            if (stmt.upvalues == null) {
+                varInt(0);
+            } else {
+                varInt(stmt.upvalues.length + 1);
+                for (int i = 0; i < stmt.upvalues.length; i++) {
+                    string(stmt.upvalues[i]);
+                    varInt(stmt.upvalueDepths[i]);
+                }
+                varInt(stmt.globalDepth);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            tag(STMT_IF);
+            expr(stmt.condition);
+            stmt(stmt.thenBranch);
+            stmt(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            tag(STMT_PRINT);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            tag(STMT_RETURN);
+            token(stmt.keyword);
+            expr(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            tag(STMT_VAR);
+            token(stmt.name);
+            expr(stmt.initializer);
+            tag(stmt.captured ? (byte) 1 : (byte) 0);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            tag(STMT_WHILE);
+            expr(stmt.condition);
+            stmt(stmt.body);
+            // 0：不复用；1：复用 body；2：复用 body 中的第一个语句
+            tag(stmt.reused == null ? (byte) 0 : stmt.reused == stmt.body ? (byte) 1 : (byte) 2);
+            return null;
+        }
+
+        @Override
+        public Void visitVarTupleStmt(Stmt.VarTuple stmt) {
+            tag(STMT_VAR_TUPLE);
+            expr(stmt.tuple);
+            expr(stmt.initializer);
+            token(stmt.equal);
+            return null;
+        }
+
+        /**
+         * aliasMap 以 Token 对象本身为键，所以这里按 items 的顺序逐个写出别名，读取时用同一批 Token 重建
+         */
+        @Override
+        public Void visitImportStmt(Stmt.Import stmt) {
+            tag(STMT_IMPORT);
+            token(stmt.path);
+            tokenList(stmt.items);
+            for (Token item : stmt.items) {
+                string(stmt.aliasMap.get(item));
+            }
+            string(stmt.moduleAlias);
+            return null;
+        }
+
+        @Override
+        public Void visitParallelWithStmt(Stmt.ParallelWith stmt) {
+            tag(STMT_PARALLEL_WITH);
+            token(stmt.keyword);
+            token(stmt.name);
+            expr(stmt.iterable);
+            stmt(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitYieldStmt(Stmt.Yield stmt) {
+            tag(STMT_YIELD);
+            token(stmt.keyword);
+            expr(stmt.value);
+            return null;
+        }
+    }
+
+    private static class Reader {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+        private final TokenType[] types = TokenType.values();
+
+        Reader(DataInputStream in) {
+            this.in = in;
+            strings.add(null);
+        }
+
+        private List<Stmt> readStmtList() throws IOException {
+            int size = varInt();
+            List<Stmt> stmts = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                stmts.add(stmt());
+            }
+            return stmts;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T extends Stmt> List<T> stmtList() throws IOException {
+            return (List<T>) readStmtList();
+        }
+
+        private List<Expr> exprList() throws IOException {
+            int size = varInt();
+            List<Expr> exprs = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                exprs.add(expr());
+            }
+            return exprs;
+        }
+
+        private List<Token> tokenList() throws IOException {
+            int size = varInt();
+            List<Token> tokens = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                tokens.add(token());
+            }
+            return tokens;
+        }
+
+        private Token token() throws IOException {
+            int ordinal = varInt();
+            if (ordinal >= types.length) {
+                throw new IOException("unknown token type " + ordinal);
+            }
+            String lexeme = string();
+            Object literal = value();
+            int line = varInt() - 1;
+            return new Token(types[ordinal], lexeme, literal, line);
+        }
+
+        private Object value() throws IOException {
+            byte tag = in.readByte();
+            return switch (tag) {
+                case VALUE_NIL -> null;
+                case VALUE_TRUE -> true;
+                case VALUE_FALSE -> false;
+                case VALUE_NUMBER -> in.readDouble();
+                case VALUE_INTEGER -> in.readLong();
+                case VALUE_STRING -> string();
+                default -> throw new IOException("unknown value tag " + tag);
+            };
+        }
+
+        private String string() throws IOException {
+            int index = varInt();
+            if (index < strings.size()) {
+                return strings.get(index);
+            }
+            if (index != strings.size()) {
+                throw new IOException("corrupted string table");
+            }
+            byte[] bytes = new byte[varInt()];
+            in.readFully(bytes);
+            String s = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(s);
+            return s;
+        }
+
+        private int varInt() throws IOException {
+            int value = 0;
+            int shift = 0;
+            while (true) {
+                byte b = in.readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                shift += 7;
+                if (shift > 28) {
+                    throw new IOException("malformed varint");
+                }
+            }
+        }
+
+        private int depth() throws IOException {
+            return varInt() - 1;
+        }
+
+        private Expr expr() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case EXPR_ASSIGN: {
+                    Token name = token();
+                    Expr.Assign assign = new Expr.Assign(name, expr());
+                    assign.depth = depth();
+                    return assign;
+                }
+                case EXPR_BINARY:
+                    return new Expr.Binary(expr(), token(), expr());
+                case EXPR_CALL:
+                    return new Expr.Call(expr(), token(), exprList());
+                case EXPR_GET:
+                    return new Expr.Get(expr(), token());
+                case EXPR_GROUPING:
+                    return new Expr.Grouping(expr());
+                case EXPR_LITERAL:
+                    return new Expr.Literal(value());
+                case EXPR_LOGICAL:
+                    return new Expr.Logical(expr(), token(), expr());
+                case EXPR_SET:
+                    return new Expr.Set(expr(), token(), expr());
+                case EXPR_UNARY:
+                    return new Expr.Unary(token(), expr());
+                case EXPR_VARIABLE: {
+                    Expr.Variable variable = new Expr.Variable(token());
+                    variable.depth = depth();
+                    return variable;
+                }
+                case EXPR_FSTRING:
+                    return new Expr.FString(string(), exprList());
+                case EXPR_THIS: {
+                    Expr.This thisExpr = new Expr.This(token());
+                    thisExpr.depth = depth();
+                    return thisExpr;
+                }
+                case EXPR_ARRAY_CREATION:
+                    return new Expr.ArrayCreationExpr(exprList(), token());
+                case EXPR_ARRAY_GET:
+                    return new Expr.ArrayGetExpr(expr(), expr(), token());
+                case EXPR_ARRAY_SET:
+                    return new Expr.ArraySetExpr(expr(), expr(), expr(), token());
+                case EXPR_TUPLE:
+                    return new Expr.TupleExpr(exprList());
+                case EXPR_TUPLE_UNPACK:
+                    return new Expr.TupleUnpackExpr((Expr.TupleExpr) expr(), expr(), token());
+                case EXPR_NATIVE:
+                    return new Expr.Native(token());
+                case EXPR_SUPER: {
+                    Expr.Super superExpr = new Expr.Super(token(), token());
+                    superExpr.depth = depth();
+                    return superExpr;
+                }
+                default:
+                    throw new IOException("unknown expression tag " + tag);
+            }
+        }
+
+        private Stmt.Function function() throws IOException {
+            Stmt.Function function = new Stmt.Function(token(), tokenList(), readStmtList(), in.readByte() != 0);
+            function.captured = in.readByte() != 0;
+            for (int index = varInt(); index != 0; index = varInt()) {
+                if (index > function.params.size()) {
+                    throw new IOException("parameter index out of range " + index);
+                }
+                if (function.capturedParams == null) {
+                    function.capturedParams = new boolean[function.params.size()];
+                }
+                function.capturedParams[index - 1] = true;
+            }
+            int upvalues = varInt() - 1;
+            if (upvalues >= 0) {
+                function.upvalues = new String[upvalues];
+                function.upvalueDepths = new int[upvalues];
+                for (int i = 0; i < upvalues; i++) {
+                    function.upvalues[i] = string();
+                    function.upvalueDepths[i] = varInt();
+                }
+                function.globalDepth = varInt();
+            }
+            return function;
+        }
+
+        private Stmt stmt() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case STMT_BLOCK: {
+                    Stmt.Block block = new Stmt.Block(readStmtList());
+                    block.scoped = in.readByte() != 0;
+                    return block;
+                }
+                case STMT_CLASS: {
+                    Token name = token();
+                    List<Stmt.Function> methods = stmtList();
+                    List<Stmt.Function> staticMethods = stmtList();
+                    List<Stmt.Var> staticVariables = stmtList();
+                    Expr.Variable superName = (Expr.Variable) expr();
+                    Stmt.Class classStmt = new Stmt.Class(name, methods, staticMethods, staticVariables, superName);
+                    classStmt.captured = in.readByte() != 0;
+                    return classStmt;
+                }
+                case STMT_EXPRESSION:
+                    return new Stmt.Expression(expr());
+                case STMT_FUNCTION:
+                    return function();
+                case STMT_IF:
+                    return new Stmt.If(expr(), stmt(), stmt());
+                case STMT_PRINT:
+                    return new Stmt.Print(expr());
+                case STMT_RETURN:
+                    return new Stmt.Return(token(), expr());
+                case STMT_VAR: {
+                    Stmt.Var var = new Stmt.Var(token(), expr());
+                    var.captured = in.readByte() != 0;
+                    return var;
+                }
+                case STMT_WHILE: {
+                    Stmt.While whileStmt = new Stmt.While(expr(), stmt());
+                    byte reused = in.readByte();
+                    if (reused == 1) {
+                        whileStmt.reused = (Stmt.Block) whileStmt.body;
+                    } else if (reused == 2) {
+                        whileStmt.reused = (Stmt.Block) ((Stmt.Block) whileStmt.body).statements.getFirst();
+                    }
+                    return whileStmt;
+                }
+                case STMT_VAR_TUPLE:
+                    return new Stmt.VarTuple((Expr.TupleExpr) expr(), expr(), token());
+                case STMT_IMPORT: {
+                    Token path = token();
+                    List<Token> items = tokenList();
+                    HashMap<Token, String> aliasMap = new HashMap<>();
+                    for (Token item : items) {
+                        String alias = string();
+                        if (alias != null) {
+                            aliasMap.put(item, alias);
+                        }
+                    }
+                    return new Stmt.Import(path, items, aliasMap, string());
+                }
+                case STMT_PARALLEL_WITH:
+                    return new Stmt.ParallelWith(token(), token(), expr(), stmt());
+                case STMT_YIELD:
+                    return new Stmt.Yield(token(), expr());
+                default:
+                    throw new IOException("unknown statement tag " + tag);
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * <p>{@code lox bench}：端到端地运行一组 lox 程序，用于比较解释器的不同调优。</p>
+ * 每个程序先运行若干次预热，再运行若干次计入结果。每一次运行都使用一个新的 {@link LoxContext}，
+ * 计时覆盖 scan、parse、resolve 和执行，不包括创建 context（加载标准库）的开销。程序的输出被丢弃。
+ * <p>报告的指标：
+ * <ul>
+ *     <li>wall：墙上时间的中位数与最小值</li>
+ *     <li>alloc：每次运行在当前线程上分配的字节数，以及分配速率</li>
+ *     <li>gc：每次运行期间垃圾回收的累计时间</li>
+ * </ul>
+ * {@code --save} 把结果写入一个基线文件，{@code --baseline} 读取一个基线文件并报告相对它的变化。
+ */
+public class LoxBench {
+
+    private static final String DEFAULT_CORPUS = "bench/lox";
+
+    private int warmup = 3;
+    private int runs = 5;
+    private Path baseline;
+    private Path save;
+    private final List<Path> programs = new ArrayList<>();
+
+    /**
+     * 单个程序的结果
+     */
+    static class Result {
+        final String name;
+        final double wallMs; // 中位数
+        final double minWallMs;
+        final double allocMb; // 每次运行的平均值
+        final double gcMs; // 每次运行的平均值
+
+        Result(String name, double wallMs, double minWallMs, double allocMb, double gcMs) {
+            this.name = name;
+            this.wallMs = wallMs;
+            this.minWallMs = minWallMs;
+            this.allocMb = allocMb;
+            this.gcMs = gcMs;
+        }
+
+        double allocRate() {
+            return wallMs == 0 ? 0 : allocMb / (wallMs / 1000);
+        }
+    }
+
+    /**
+     * 用法：{@code lox bench [--warmup n] [--runs n] [--baseline file] [--save file] [file or directory ...]}
+     * <p>没有给出程序时，运行 {@value #DEFAULT_CORPUS} 中的所有 .lox 文件。
+     */
+    public static void main(String[] args) throws IOException {
+        LoxBench bench = new LoxBench();
+        if (!bench.parseArgs(args)) {
+            System.out.println("Usage: lox bench [--warmup n] [--runs n] [--baseline file] [--save file] [file or directory ...]");
+            return;
+        }
+        bench.run();
+    }
+
+    private boolean parseArgs(String[] args) throws IOException {
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--")) {
+                if (i + 1 >= args.length) {
+                    return false;
+                }
+                String value = args[++i];
+                try {
+                    switch (arg) {
+                        case "--warmup" -> warmup = Integer.parseInt(value);
+                        case "--runs" -> runs = Integer.parseInt(value);
+                        case "--baseline" -> baseline = Path.of(value);
+                        case "--save" -> save = Path.of(value);
+                        default -> {
+                            System.out.println("Error. Unknown option: " + arg);
+                            return false;
+                        }
+                    }
+                } catch (NumberFormatException e) {
+                    System.out.println("Error. Not a number: " + value);
+                    return false;
+                }
+            } else {
+                paths.add(arg);
+            }
+        }
+        if (paths.isEmpty()) {
+            paths.add(DEFAULT_CORPUS);
+        }
+        for (String p : paths) {
+            Path path = Path.of(p);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.list(path)) {
+                    files.filter(f -> f.toString().endsWith(".lox")).sorted().forEach(programs::add);
+                }
+            } else if (Files.isRegularFile(path)) {
+                programs.add(path);
+            } else {
+                System.out.println("Error. No such file or directory: " + p);
+                return false;
+            }
+        }
+        return runs > 0 && warmup >= 0;
+    }
+
+    private void run() throws IOException {
+        Map<String, Result> base = baseline == null ? Map.of() : readResults(baseline);
+        System.out.printf("warmup %d, runs %d%n%n", warmup, runs);
+        System.out.printf("%-20s %10s %10s %10s %10s %8s%s%n", "program", "wall(ms)", "min(ms)", "alloc(MB)", "MB/s", "gc(ms)",
+                base.isEmpty() ? "" : "   vs baseline");
+
+        List<Result> results = new ArrayList<>();
+        for (Path program : programs) {
+            Result result = measure(program);
+            if (result == null) {
+                continue;
+            }
+            results.add(result);
+            System.out.printf("%-20s %10.1f %10.1f %10.1f %10.0f %8.1f%s%n", result.name, result.wallMs, result.minWallMs,
+                    result.allocMb, result.allocRate(), result.gcMs, compare(result, base.get(result.name)));
+        }
+
+        if (save != null) {
+            writeResults(save, results);
+            System.out.println();
+            System.out.println("baseline saved to " + save);
+        }
+    }
+
+    /**
+     * @return 如果程序出错，返回 null
+     */
+    private Result measure(Path program) throws IOException {
+        String name = program.getFileName().toString().replaceFirst("\\.lox$", "");
+        String source = Files.readString(program);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+        double[] wall = new double[runs];
+        double alloc = 0;
+        double gc = 0;
+        for (int i = 0; i < warmup + runs; i++) {
+            LoxContext context = new LoxContext();
+
+            long gcBefore = gcMillis(collectors);
+            long allocBefore = threads.getCurrentThreadAllocatedBytes();
+            PrintStream out = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            long start = System.nanoTime();
+            try {
+                context.run(source);
+            } finally {
+                System.setOut(out);
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = threads.getCurrentThreadAllocatedBytes() - allocBefore;
+            long gcTime = gcMillis(collectors) - gcBefore;
+
+            if (context.hadError() || context.hadRuntimeError()) {
+                System.out.printf("%-20s failed (run it directly to see the error)%n", name);
+                return null;
+            }
+            if (i >= warmup) {
+                wall[i - warmup] = elapsed / 1e6;
+                alloc += allocated / 1e6;
+                gc += gcTime;
+            }
+        }
+        Arrays.sort(wall);
+        return new Result(name, wall[runs / 2], wall[0], alloc / runs, gc / runs);
+    }
+
+    private static long gcMillis(List<GarbageCollectorMXBean> collectors) {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            total += Math.max(0, collector.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static String compare(Result result, Result base) {
+        if (base == null) {
+            return "";
+        }
+        return "   wall %s, alloc %s".formatted(change(result.wallMs, base.wallMs), change(result.allocMb, base.allocMb));
+    }
+
+    private static String change(double now, double before) {
+        if (before == 0) {
+            return "n/a";
+        }
+        return "%+.1f%%".formatted((now - before) / before * 100);
+    }
+
+    /**
+     * 基线文件的格式：每行一个程序，以 tab 分隔 名字、wall(ms)、min(ms)、alloc(MB)、gc(ms)。以 # 开头的行是注释
+     */
+    private static void writeResults(Path file, List<Result> results) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("# program\twall_ms\tmin_ms\talloc_mb\tgc_ms");
+        for (Result r : results) {
+            lines.add("%s\t%.3f\t%.3f\t%.3f\t%.3f".formatted(r.name, r.wallMs, r.minWallMs, r.allocMb, r.gcMs));
+        }
+        Files.write(file, lines);
+    }
+
+    private static Map<String, Result> readResults(Path file) throws IOException {
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file)) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] cells = line.split("\t");
+            if (cells.length != 5) {
+                throw new IOException("malformed baseline line: " + line);
+            }
+            try {
+                results.put(cells[0], new Result(cells[0], Double.parseDouble(cells[1]), Double.parseDouble(cells[2]),
+                        Double.parseDouble(cells[3]), Double.parseDouble(cells[4])));
+            } catch (NumberFormatException e) {
+                throw new IOException("malformed baseline line: " + line);
+            }
+        }
+        return results;
+    }
+}
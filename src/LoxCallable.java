@@ -1,6 +1,21 @@
+import java.util.Arrays;
 import java.util.List;
 
 public interface LoxCallable {
     int arity();
     Object call(Interpreter interpreter, List<Object> arguments);
+
+    /**
+     * 供 java 代码回调只有一个参数的 lox 函数。调用者需要自己保证 arity 为 1
+     */
+    default Object call1(Interpreter interpreter, Object argument) {
+        return call(interpreter, Arrays.asList(argument));
+    }
+
+    /**
+     * 供 java 代码回调有两个参数的 lox 函数。调用者需要自己保证 arity 为 2
+     */
+    default Object call2(Interpreter interpreter, Object first, Object second) {
+        return call(interpreter, Arrays.asList(first, second));
+    }
 }
@@ -0,0 +1,212 @@
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>{@code channel(capacity)} 的返回值：一个有界的先进先出队列，用于在 {@link LoxTask} 之间传递数据。</p>
+ * 使用 {@link ReentrantLock} 而不是 synchronized，因此阻塞在 channel 上的虚拟线程不会占住它的载体线程。
+ * <p>lox 代码可见的方法：
+ * <ul>
+ *     <li>{@code send(value)}：放入一个值。channel 满时等待。向已关闭的 channel 发送是运行时错误</li>
+ *     <li>{@code receive()}：取出一个值。channel 空时等待；已关闭并且取空之后返回 nil</li>
+ *     <li>{@code close()}：关闭 channel。已经放入的值仍然可以被取出</li>
+ *     <li>{@code iter()}、{@code hasNext()}、{@code next()}：支持 {@code with v in ch}，循环直到 channel 被关闭并且取空</li>
+ * </ul>
+ */
+public class LoxChannel extends LoxInstance {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Object[] items;
+    private int head = 0;
+    private int count = 0;
+    private boolean closed = false;
+
+    LoxChannel(int capacity) {
+        super((LoxClass) null);
+        this.items = new Object[capacity];
+        LoxChannel self = this;
+        set("send", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                send(arguments.getFirst());
+                return null;
+            }
+
+            @Override
+            public String toString() {
+                return "<native: send>";
+            }
+        });
+        set("receive", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return receive();
+            }
+
+            @Override
+            public String toString() {
+                return "<native: receive>";
+            }
+        });
+        set("close", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                close();
+                return null;
+            }
+
+            @Override
+            public String toString() {
+                return "<native: close>";
+            }
+        });
+        set("iter", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return self;
+            }
+
+            @Override
+            public String toString() {
+                return "<native: iter>";
+            }
+        });
+        set("hasNext", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return hasNext();
+            }
+
+            @Override
+            public String toString() {
+                return "<native: hasNext>";
+            }
+        });
+        set("next", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return receive();
+            }
+
+            @Override
+            public String toString() {
+                return "<native: next>";
+            }
+        });
+    }
+
+    private void send(Object value) {
+        lock.lock();
+        try {
+            while (count == items.length && !closed) {
+                notFull.await();
+            }
+            if (closed) {
+                throw new LoxRuntimeError(null, "send on a closed channel");
+            }
+            items[(head + count) % items.length] = value;
+            count++;
+            notEmpty.signal();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LoxRuntimeError(null, "interrupted while sending to a channel");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Object receive() {
+        lock.lock();
+        try {
+            awaitItem();
+            if (count == 0) {
+                return null;
+            }
+            Object value = items[head];
+            items[head] = null;
+            head = (head + 1) % items.length;
+            count--;
+            notFull.signal();
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 等待直到 channel 不为空或者已经关闭。返回之后，count 为 0 意味着不会再有新的值了
+     */
+    private boolean hasNext() {
+        lock.lock();
+        try {
+            awaitItem();
+            return count > 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitItem() {
+        try {
+            while (count == 0 && !closed) {
+                notEmpty.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LoxRuntimeError(null, "interrupted while receiving from a channel");
+        }
+    }
+
+    private void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String typeName() {
+        return "Channel";
+    }
+
+    @Override
+    public String toString() {
+        return "<channel: %d/%d%s>".formatted(count, items.length, closed ? ", closed" : "");
+    }
+}
@@ -9,9 +9,12 @@ public class LoxClass extends LoxInstance implements LoxCallable {
 
     /**
      * 一个类可以有自己的父类。但是，作为一个对象，它自己的类型是 origin。如果没有指定父类，那么父类也是 origin
+     * <p>只有两个对象的父类是 null: native object 和 origin。origin 的父类是 null，因为在构造 origin 的时候，
+     * interpreter 中的 origin 还是 null
+     * @param origin 所在的 interpreter 的 Origin 类
      */
-    LoxClass(String name, HashMap<String, LoxFunction> methods, HashMap<String, Object> staticFields, LoxClass superClass) {
-        super(staticFields);
+    LoxClass(String name, HashMap<String, LoxFunction> methods, HashMap<String, Object> staticFields, LoxClass superClass, LoxClass origin) {
+        super(origin, staticFields);
         this.name = name;
         this.methods = methods;
         if (superClass != null) {
@@ -25,13 +28,20 @@ public class LoxClass extends LoxInstance implements LoxCallable {
      * @return null if not found
      */
     public LoxFunction getMethod(String methodName) {
-        if (methods.containsKey(methodName)) {
-            return methods.get(methodName);
-        } else if (superClass != null) {
-            return superClass.getMethod(methodName);
-        } else {
-            return null;
+        int steps = 0;
+        for (LoxClass current = this; current != null; current = current.superClass) {
+            steps++;
+            if (current.methods.containsKey(methodName)) {
+                if (LoxMetrics.ENABLED) {
+                    LoxMetrics.methodLookedUp(steps);
+                }
+                return current.methods.get(methodName);
+            }
         }
+        if (LoxMetrics.ENABLED) {
+            LoxMetrics.methodLookedUp(steps);
+        }
+        return null;
     }
 
     @Override
@@ -66,12 +76,4 @@ public class LoxClass extends LoxInstance implements LoxCallable {
         }
         return this.superClass.isOfType(type);
     }
-
-    /**
-     * <p>只有两个对象的父类是 null: native object 和 origin.
-     *  <p>origin 的父类是 null，因为在用 LoxClass 构造函数构造 origin 的时候，origin 还是 null，所以得到了静态引用
-     *  <p>但是，值得注意的是，loxFunction 并不是loxInstance</p>
-      */
-
-    public static LoxClass origin;
 }
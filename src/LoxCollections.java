@@ -0,0 +1,174 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * <p>数组上的高阶函数：map、filter、reduce、forEach、sum，以及它们的并行版本 parMap、parFilter、parReduce。</p>
+ * 它们都作用于一个数组的前 length 个元素，因此 Array 和 List（它的 backing 数组和 size）可以共用。
+ * 回调使用 {@link LoxCallable#call1}/{@link LoxCallable#call2}，对于 lox 函数不需要为每个元素创建参数列表。
+ * <p>并行版本把元素切分为若干块，交给 fork-join 线程池，每一块使用一个 fork 出来的 {@link Interpreter}。
+ * 元素少于 {@link #PARALLEL_THRESHOLD} 时直接在当前线程上执行。回调应当是纯函数：它们会在多个线程上同时执行，
+ * 解释器不会为它们写入的共享状态加锁。parReduce 还要求 fn 满足结合律。
+ */
+public class LoxCollections {
+
+    static final int PARALLEL_THRESHOLD = 1024;
+
+    /**
+     * 处理第 index 块，即 [from, to) 中的元素。worker 是这一块专用的 interpreter
+     */
+    interface Chunk {
+        void run(Interpreter worker, int index, int from, int to);
+    }
+
+    public static LoxArray map(Interpreter interpreter, LoxArray array, int length, LoxCallable fn) {
+        LoxArray result = new LoxArray(interpreter.arrayClass, length);
+        for (int i = 0; i < length; i++) {
+            result.setAtIndex(i, fn.call1(interpreter, array.getAtIndex(i)));
+        }
+        return result;
+    }
+
+    public static LoxArray filter(Interpreter interpreter, LoxArray array, int length, LoxCallable fn) {
+        List<Object> kept = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            Object item = array.getAtIndex(i);
+            if (Interpreter.isTrue(fn.call1(interpreter, item))) {
+                kept.add(item);
+            }
+        }
+        return new LoxArray(interpreter.arrayClass, kept);
+    }
+
+    public static Object reduce(Interpreter interpreter, LoxArray array, int length, LoxCallable fn, Object initial) {
+        Object acc = initial;
+        for (int i = 0; i < length; i++) {
+            acc = fn.call2(interpreter, acc, array.getAtIndex(i));
+        }
+        return acc;
+    }
+
+    public static void forEach(Interpreter interpreter, LoxArray array, int length, LoxCallable fn) {
+        for (int i = 0; i < length; i++) {
+            fn.call1(interpreter, array.getAtIndex(i));
+        }
+    }
+
+    public static double sum(LoxArray array, int length) {
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            if (!Interpreter.isNumber(array.getAtIndex(i))) {
+                throw new LoxRuntimeError(null, "sum expects numbers, but got %s at index %d"
+                        .formatted(Interpreter.stringify(array.getAtIndex(i)), i));
+            }
+            sum += Interpreter.toDouble(array.getAtIndex(i));
+        }
+        return sum;
+    }
+
+    public static LoxArray parMap(Interpreter interpreter, LoxArray array, int length, LoxCallable fn) {
+        if (length < PARALLEL_THRESHOLD) {
+            return map(interpreter, array, length, fn);
+        }
+        LoxArray result = new LoxArray(interpreter.arrayClass, length);
+        runChunks(interpreter, length, (worker, index, from, to) -> {
+            for (int i = from; i < to; i++) {
+                result.setAtIndex(i, fn.call1(worker, array.getAtIndex(i)));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 先并行地计算每个元素是否保留，再在当前线程上按原来的顺序收集
+     */
+    public static LoxArray parFilter(Interpreter interpreter, LoxArray array, int length, LoxCallable fn) {
+        if (length < PARALLEL_THRESHOLD) {
+            return filter(interpreter, array, length, fn);
+        }
+        boolean[] keep = new boolean[length];
+        runChunks(interpreter, length, (worker, index, from, to) -> {
+            for (int i = from; i < to; i++) {
+                keep[i] = Interpreter.isTrue(fn.call1(worker, array.getAtIndex(i)));
+            }
+        });
+        List<Object> kept = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            if (keep[i]) {
+                kept.add(array.getAtIndex(i));
+            }
+        }
+        return new LoxArray(interpreter.arrayClass, kept);
+    }
+
+    /**
+     * 每一块从它的第一个元素开始归约，得到一个部分结果；再在当前线程上从 initial 开始按顺序归约所有的部分结果。
+     * fn 满足结合律时，结果与 {@link #reduce} 相同
+     */
+    public static Object parReduce(Interpreter interpreter, LoxArray array, int length, LoxCallable fn, Object initial) {
+        if (length < PARALLEL_THRESHOLD) {
+            return reduce(interpreter, array, length, fn, initial);
+        }
+        int chunks = chunkCount(length);
+        Object[] partials = new Object[chunks];
+        runChunks(interpreter, length, (worker, index, from, to) -> {
+            Object acc = array.getAtIndex(from);
+            for (int i = from + 1; i < to; i++) {
+                acc = fn.call2(worker, acc, array.getAtIndex(i));
+            }
+            partials[index] = acc;
+        });
+        Object acc = initial;
+        for (Object partial : partials) {
+            acc = fn.call2(interpreter, acc, partial);
+        }
+        return acc;
+    }
+
+    private static int chunkCount(int length) {
+        return Math.max(1, Math.min(length, ForkJoinPool.commonPool().getParallelism() * 4));
+    }
+
+    private static int chunkStart(int length, int chunks, int c) {
+        return (int) ((long) length * c / chunks);
+    }
+
+    /**
+     * 把 [0, length) 均匀地切分为若干块，在 fork-join 线程池上执行，等待所有的块结束。
+     * 如果有块出错，抛出其中第一个块的错误
+     */
+    static void runChunks(Interpreter interpreter, int length, Chunk chunk) {
+        if (length == 0) {
+            return;
+        }
+        int chunks = chunkCount(length);
+        List<Callable<Void>> tasks = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            int from = chunkStart(length, chunks, c);
+            int to = chunkStart(length, chunks, c + 1);
+            int index = c;
+            Interpreter worker = interpreter.fork();
+            tasks.add(() -> {
+                worker.context.limits.begin(worker);
+                chunk.run(worker, index, from, to);
+                return null;
+            });
+        }
+        for (Future<Void> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException error) {
+                    throw error;
+                }
+                throw new LoxRuntimeError(null, "parallel execution failed: " + e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LoxRuntimeError(null, "interrupted while waiting for parallel execution");
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>一个独立的 lox 运行环境：一个 {@link Interpreter}（以及从它 fork 出来的 interpreter）和它的错误状态。</p>
+ * 运行时的状态都属于某个 context，而不是静态变量，因此一个 JVM 中可以同时存在任意多个 context，
+ * 分别在不同的线程上执行互不相干的脚本。各个 context 有自己的全局环境、已导入的模块，以及 Origin、Array、List 等内建类，
+ * 一个 context 对内建类的修改不会影响其他 context。
+ * <p>除了 {@link #LoxContext(LoxContext)} 创建的 context，context 之间唯一共享的是标准库 resolve 之后的语句（见 {@link Interpreter#bootstrapStatements}）：它们在 resolve 之后就不再改变，
+ * 因此只需要 scan、parse、resolve 一次，每个新的 context 只需要执行它们。
+ * <p>{@link Lox} 是命令行入口，它创建一个 context，然后在其中运行文件或者 repl。
+ */
+public final class LoxContext {
+
+    /**
+     * 不为 null 时，当前线程上产生的 scan/parse/resolve 错误会被收集到这里，既不输出，也不会设置 hadError。
+     * 用于在后台预读模块，见 {@link LoxModulePrefetcher}
+     */
+    static final ThreadLocal<List<String>> errorCollector = new ThreadLocal<>();
+
+    volatile boolean hadError = false;
+    volatile boolean hadRuntimeError = false;
+    boolean repl = false; // 调用 runPrompt 的时候，该变量会被设为 true。这会导致返回值不为 nil 的表达式语句输出其值。
+    boolean warnings = true; // 为 false 时，resolver 不输出变量留给运行时查找的警告。嵌入时使用，见 LoxScriptEngine
+
+    final Interpreter interpreter;
+    final LoxOutput out = new LoxOutput(); // print 语句的输出缓冲区
+    final LoxLimits limits = new LoxLimits(); // 步数、时间、内存的限制，默认不限制
+
+    public LoxContext() {
+        this.interpreter = new Interpreter(this);
+    }
+
+    /**
+     * 创建一个与 parent 共享全局环境、内建类和已导入的模块的 context，它有自己的输出、执行限制和错误状态。
+     * 两个 context 可以同时在不同的线程上执行，一个 context 中定义的函数和对象在另一个中也能正确地使用，
+     * 因为它们看到的是同一套内建类。用于 {@link LoxScriptEngine} 的各个线程
+     */
+    LoxContext(LoxContext parent) {
+        this.interpreter = parent.interpreter.fork(this);
+        this.warnings = parent.warnings;
+    }
+
+    private LoxContext(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * @return 一个没有 interpreter 的 context，只用来接收错误。没有指定 context 的 scanner 和 parser 使用它
+     */
+    static LoxContext detached() {
+        return new LoxContext((Interpreter) null);
+    }
+
+    public Interpreter getInterpreter() {
+        return interpreter;
+    }
+
+    public LoxLimits getLimits() {
+        return limits;
+    }
+
+    public boolean hadError() {
+        return hadError;
+    }
+
+    public boolean hadRuntimeError() {
+        return hadRuntimeError;
+    }
+
+    /**
+     * 清除错误状态，之后可以继续在这个 context 中运行其他代码
+     */
+    public void clearErrors() {
+        hadError = false;
+        hadRuntimeError = false;
+    }
+
+    public void run(CharSequence source) {
+        limits.start(interpreter);
+        try {
+            runStatements(source);
+        } finally {
+            interpreter.discardPrefetched();
+            out.flush();
+        }
+    }
+
+    private void runStatements(CharSequence source) {
+        long time = LoxMetrics.now();
+        LoxScanner scanner = new LoxScanner(source).reportTo(this);
+        List<Token> tokens = scanner.scanTokens();
+        time = LoxMetrics.record(LoxMetrics.scanNanos, time);
+        LoxParser parser = new LoxParser(tokens).reportTo(this);
+        List<Stmt> statements = parser.parse();
+        time = LoxMetrics.record(LoxMetrics.parseNanos, time);
+        if (!hadError) {
+            interpreter.prefetchImports(statements);
+            LoxResolver resolver = new LoxResolver(interpreter);
+            resolver.resolve(statements);
+            time = LoxMetrics.record(LoxMetrics.resolveNanos, time);
+            if (!hadError) {
+                interpreter.interpret(statements);
+                LoxMetrics.record(LoxMetrics.executeNanos, time);
+            }
+        }
+    }
+
+    /**
+     * 流式地运行一段源码：扫描器按需产生 token，解析器每次只解析一个顶层语句，这个语句随即被 resolve 和执行，然后它的 AST 就可以被释放。
+     * 因此巨大的（比如自动生成的）脚本可以立即开始产生输出，并且 token 和 AST 占用的内存不随脚本的长度增长。
+     * 源码本身是否占用堆取决于传入的 CharSequence：命令行传入的是映射到内存的文件（见 {@link LoxMappedSource}），它不在堆上，
+     * 由操作系统按页读入和换出，此时堆的占用与脚本长度无关；传入 String 时，整个源码依然在内存中。
+     * <p>与 {@link #run(CharSequence)} 不同，出错之前的语句已经被执行了。遇到第一个错误时停止。
+     */
+    public void runStream(CharSequence source) {
+        LoxParser parser = new LoxParser(new LoxScanner(source).reportTo(this));
+        LoxResolver resolver = new LoxResolver(interpreter); // 整个文件共享同一个 resolver，全局作用域因此得以保留
+        limits.start(interpreter); // 限制作用于整个文件，而不是每个语句
+        try {
+            runStatements(parser, resolver);
+        } finally {
+            interpreter.discardPrefetched();
+            out.flush();
+        }
+    }
+
+    private void runStatements(LoxParser parser, LoxResolver resolver) {
+        while (parser.hasNext() && !hadError && !hadRuntimeError) {
+            long time = LoxMetrics.now();
+            Stmt stmt = parser.next();
+            time = LoxMetrics.record(LoxMetrics.parseNanos, time); // 流式模式下扫描与解析交替进行，都计入 parse
+            if (hadError) {
+                break;
+            }
+            List<Stmt> statements = List.of(stmt);
+            interpreter.prefetchImports(statements);
+            resolver.resolve(statements);
+            time = LoxMetrics.record(LoxMetrics.resolveNanos, time);
+            if (!hadError) {
+                interpreter.interpret(statements);
+                LoxMetrics.record(LoxMetrics.executeNanos, time);
+            }
+        }
+    }
+
+    /**
+     * <p>REPL 是一个持续的会话。</p>
+     * 每一行输入只被扫描一次，得到的 token 被追加到尚未构成完整语句的 token 之后。如果解析时捕获到了 ReplPending 异常，
+     * 说明在某个该有语句的地方没有语句，那么保留这些 token，继续读取下一行。这样，等待中的输入不会被重复扫描。
+     * 如果一行以未结束的字符串或者注释结尾，那么这一行的原始文本会和下一行合并后再扫描。
+     * <p>整个会话共享同一个 {@link LoxResolver}，因此之前的输入中定义的全局变量，在之后的输入中也可以被 resolve，而不必在运行时动态地查找。
+     */
+    public void runPrompt(BufferedReader reader) throws IOException {
+        repl = true;
+        LoxResolver resolver = new LoxResolver(interpreter);
+        List<Token> pending = new ArrayList<>(); // 尚未构成完整语句的 token，不包括 EOF
+        int pendingLines = 0; // pending 来自多少行输入。用于给新的一行编号
+        String unterminated = ""; // 以未结束的字符串或者注释结尾的输入
+        while (true) {
+            out.flush();
+            if (pending.isEmpty() && unterminated.isEmpty()) {
+                System.out.print("> ");
+            } else {
+                System.out.print("... ");
+            }
+            String line = reader.readLine();
+            if (line == null) {
+                System.out.println();
+                break;
+            }
+            String text = unterminated.isEmpty() ? line : unterminated + "\n" + line;
+            LoxScanner scanner = new LoxScanner(text, pendingLines + 1).acceptUnterminated().reportTo(this);
+            List<Token> tokens = scanner.scanTokens();
+            if (scanner.isUnterminated()) {
+                unterminated = text;
+                continue;
+            }
+            unterminated = "";
+            pendingLines += (int) text.lines().count();
+            Token eof = tokens.removeLast();
+            pending.addAll(tokens);
+
+            List<Token> statementTokens = new ArrayList<>(pending);
+            statementTokens.add(eof);
+            try {
+                List<Stmt> statements = new LoxParser(statementTokens).reportTo(this).parse();
+                if (!hadError) {
+                    interpreter.prefetchImports(statements);
+                    resolver.resolve(statements);
+                    if (!hadError) {
+                        limits.start(interpreter); // 每一次输入分别计算
+                        interpreter.interpret(statements);
+                    }
+                }
+            } catch (LoxParser.ReplPending e) {
+                continue;
+            } catch (LoxParser.ParseError e) {
+                // 错误已经报告了，丢弃这条语句
+            }
+            interpreter.discardPrefetched();
+            pending.clear();
+            pendingLines = 0;
+            hadError = false;
+        }
+    }
+
+    public void parsingError(int line, String where, String message) {
+        report(line, where, "Parsing error: " + message);
+    }
+
+    public void scanningError(int line, String where, String message) {
+        report(line, where, "Scanning error: " + message);
+    }
+
+    public void resolvingError(int line, String where, String message) {
+        report(line, where, "Resolving error: " + message);
+    }
+
+    /**
+     * 这个函数不是用来抛出运行时错误，而是当运行时错误被 catch 时，调用该函数向用户报告。
+     * @param error 捕获到的运行时错误
+     */
+    void reportRuntimeError(LoxRuntimeError error) {
+        out.flush();
+        if (error.token != null) {
+            System.out.printf("[Line %d] Runtime error: %s: \"%s\"\n", error.token.line, error.getMessage(), error.token.lexeme);
+        } else {
+            System.out.printf("[Line Unknown] Runtime error: %s\n", error.getMessage());
+        }
+        hadRuntimeError = true;
+    }
+
+    public void report(int line, String where, String message) {
+        List<String> collector = errorCollector.get();
+        if (collector != null) {
+            collector.add("[line %d] %s: \"%s\"".formatted(line, message, where));
+            return;
+        }
+        out.flush();
+        System.out.printf("[line %d] %s: \"%s\"\n", line, message, where);
+        hadError = true;
+    }
+}
@@ -0,0 +1,122 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * <p>解释器发出的 JDK Flight Recorder 事件。</p>
+ * 用 {@code -XX:StartFlightRecording} 或 {@code jcmd <pid> JFR.start} 开始录制后，这些事件与 GC、分配、锁等 JVM 事件出现在同一份录制中，
+ * 可以用 JMC 或 {@code jfr print --categories Lox} 查看。
+ * <p>每个埋点先通过一个静态的探针实例检查 {@code isEnabled()}，没有在录制时它是一个常量 false，不会创建任何事件对象。
+ */
+public class LoxEvents {
+
+    static final Call CALL = new Call();
+    static final Import IMPORT = new Import();
+    static final RuntimeError RUNTIME_ERROR = new RuntimeError();
+    static final Bootstrap BOOTSTRAP = new Bootstrap();
+
+    @Name("jlox.Call")
+    @Label("Lox Function Call")
+    @Description("一次耗时超过阈值的 lox 函数调用，持续时间包括它调用的其他函数")
+    @Category("Lox")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static class Call extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("jlox.Import")
+    @Label("Lox Import")
+    @Description("一条 import 语句")
+    @Category("Lox")
+    @StackTrace(false)
+    static class Import extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Line")
+        int line;
+
+        @Label("Origin")
+        @Description("registry：模块已经执行过，直接共享；cache：来自磁盘缓存；prefetch：后台解析好的；sync：在导入时同步地读取和编译")
+        String origin;
+
+        @Label("Compile Time")
+        @Description("得到 resolve 之后的语句列表所花费的时间，包括等待后台预读")
+        @Timespan(Timespan.NANOSECONDS)
+        long compileTime;
+
+        @Label("Execute Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long executeTime;
+    }
+
+    @Name("jlox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Description("一个被抛出的 LoxRuntimeError。return 语句使用的 LoxReturn 不算在内")
+    @Category("Lox")
+    @StackTrace(false)
+    static class RuntimeError extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        @Description("出错的 token 所在的行。未知时为 -1")
+        int line;
+
+        @Label("Token")
+        String lexeme;
+    }
+
+    @Name("jlox.Bootstrap")
+    @Label("Lox Stdlib Bootstrap")
+    @Description("加载一个内建的标准库模块")
+    @Category("Lox")
+    @StackTrace(false)
+    static class Bootstrap extends Event {
+        @Label("Module")
+        String module;
+    }
+
+    /**
+     * 开始一次函数调用的计时
+     * @return 如果没有在录制 jlox.Call，返回 null
+     */
+    static Call beginCall() {
+        if (!CALL.isEnabled()) {
+            return null;
+        }
+        Call event = new Call();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * 结束计时，如果耗时超过了阈值，提交事件
+     */
+    static void endCall(Call event, Stmt.Function declaration) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.function = declaration.name.lexeme;
+            event.line = declaration.name.line;
+            event.commit();
+        }
+    }
+
+    static void runtimeError(String message, Token token) {
+        RuntimeError event = new RuntimeError();
+        event.message = message;
+        event.line = token == null ? -1 : token.line;
+        event.lexeme = token == null ? null : token.lexeme;
+        event.commit();
+    }
+}
@@ -3,7 +3,7 @@ import java.util.List;
 
 public class LoxFunction implements LoxCallable{
     private final Stmt.Function declaration;
-    private final Environment closure;
+    private final Environment closure; // 定义函数时的整个环境链；扁平的闭包则只有函数引用到的外层局部变量，见 Interpreter#closureOf
     private final  boolean isInitializer;
 
     public LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
@@ -21,13 +21,63 @@ public class LoxFunction implements LoxCallable{
     public Object call(Interpreter interpreter, List<Object> arguments) {
         Environment funEnv = new Environment(closure);
         for (int i = 0; i < arguments.size(); i++) {
-            funEnv.define(declaration.params.get(i).lexeme, arguments.get(i));
+            defineParam(funEnv, i, arguments.get(i));
+        }
+        return invoke(interpreter, funEnv);
+    }
+
+    /**
+     * 直接把参数定义在函数的环境中，不经过参数列表
+     */
+    @Override
+    public Object call1(Interpreter interpreter, Object argument) {
+        Environment funEnv = new Environment(closure);
+        defineParam(funEnv, 0, argument);
+        return invoke(interpreter, funEnv);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object first, Object second) {
+        Environment funEnv = new Environment(closure);
+        defineParam(funEnv, 0, first);
+        defineParam(funEnv, 1, second);
+        return invoke(interpreter, funEnv);
+    }
+
+    private void defineParam(Environment funEnv, int index, Object value) {
+        boolean[] captured = declaration.capturedParams;
+        funEnv.define(declaration.params.get(index).lexeme, captured != null && captured[index] ? new Environment.Cell(value) : value);
+    }
+
+    /**
+     * @param funEnv 已经定义好参数的函数环境
+     */
+    private Object invoke(Interpreter interpreter, Environment funEnv) {
+        interpreter.safepoint();
+        if (declaration.generator) {
+            // 函数体在第一次需要元素时才开始执行
+            return new LoxGenerator(interpreter, declaration, funEnv);
+        }
+        if (LoxMetrics.ENABLED) {
+            LoxMetrics.calls.increment();
         }
         Object returnValue = null;
+        LoxProfiler profiler = interpreter.profiler;
+        if (profiler != null) {
+            profiler.enter(declaration);
+        }
+        LoxEvents.Call event = LoxEvents.beginCall();
         try {
             interpreter.executeWithEnvironment(declaration.body, funEnv);
         }catch (LoxRuntimeError.LoxReturn e) {
             returnValue = e.value;
+        } finally {
+            if (event != null) {
+                LoxEvents.endCall(event, declaration);
+            }
+            if (profiler != null) {
+                profiler.exit();
+            }
         }
         // initializer always returns the object itself (explicit return value is disallowed)
         if (isInitializer) {
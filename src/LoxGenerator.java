@@ -0,0 +1,221 @@
+import java.lang.ref.Cleaner;
+import java.util.List;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>调用生成器函数（函数体中有 {@code yield} 语句的函数）的返回值。</p>
+ * 函数体在一个虚拟线程上、用一个 fork 出来的 {@link Interpreter} 执行，但两边从不同时运行：
+ * 调用者需要下一个元素时，生成器的线程才继续执行，直到下一个 yield，把值交给调用者后再次阻塞。
+ * 函数体在第一次调用 hasNext/next 时才开始执行，因此生成器可以是无限的，元素也不会被预先收集到数组中。
+ * <p>它自己就是 {@code with ... in} 需要的迭代器，lox 代码可见的方法：
+ * <ul>
+ *     <li>{@code iter()}：返回自己，因此生成器可以直接用在 with 语句中（但只能遍历一次）</li>
+ *     <li>{@code hasNext()}：是否还有元素。可能需要执行函数体直到下一个 yield 或者函数结束</li>
+ *     <li>{@code next()}：下一个元素。没有元素时产生运行时错误</li>
+ * </ul>
+ * 函数体中的运行时错误在调用 hasNext/next 的地方重新抛出。没有被遍历完就不再被引用的生成器，
+ * 它的线程会在生成器被回收时被中断并结束。
+ */
+public class LoxGenerator extends LoxInstance {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final Object NIL = new Object(); // SynchronousQueue 中不能放 null
+    private static final Object DONE = new Object();
+
+    private record Failure(RuntimeException error) {
+    }
+
+    /**
+     * 生成器的线程被中断时（生成器已经被回收），从 yield 的地方展开整个函数体
+     */
+    private static class Cancelled extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Cancelled() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * 两个线程之间的交接。由生成器的线程（通过 {@link Interpreter#generator}）和调用者共享，但不引用 LoxGenerator 本身，
+     * 否则生成器永远不会变得不可达
+     */
+    static class Handoff implements Runnable {
+        private final SynchronousQueue<Object> values = new SynchronousQueue<>();
+        private final SynchronousQueue<Object> resumes = new SynchronousQueue<>();
+        private volatile Thread thread;
+
+        /**
+         * 在生成器的线程上，由 yield 语句调用：交出一个值，然后等待调用者需要下一个元素
+         */
+        void yield(Object value) {
+            try {
+                values.put(value == null ? NIL : value);
+                resumes.take();
+            } catch (InterruptedException e) {
+                throw new Cancelled();
+            }
+        }
+
+        /**
+         * 被 {@link #CLEANER} 调用
+         */
+        @Override
+        public void run() {
+            Thread t = thread;
+            if (t != null) {
+                t.interrupt();
+            }
+        }
+    }
+
+    private final Handoff handoff = new Handoff();
+    // 不使用 synchronized：调用者可能也是一个生成器的虚拟线程，在 synchronized 中阻塞会占住载体线程，嵌套的生成器因此可能死锁
+    private final ReentrantLock lock = new ReentrantLock();
+    private final String name;
+    private Runnable body; // 第一次需要元素时启动，之后为 null
+    private Object lookahead; // 已经取出但还没有被 next 返回的元素，为 null 表示没有
+    private boolean finished;
+
+    /**
+     * @param parent 调用生成器函数的 interpreter
+     * @param declaration 生成器函数
+     * @param funEnv 已经定义好参数的函数环境
+     */
+    LoxGenerator(Interpreter parent, Stmt.Function declaration, Environment funEnv) {
+        super((LoxClass) null);
+        this.name = declaration.name.lexeme;
+        Interpreter worker = parent.fork();
+        worker.generator = handoff;
+        Handoff handoff = this.handoff;
+        this.body = () -> {
+            Object end = DONE;
+            try {
+                handoff.resumes.take(); // 等待第一次请求
+                worker.executeWithEnvironment(declaration.body, funEnv);
+            } catch (LoxRuntimeError.LoxReturn e) {
+                // return; 结束生成器
+            } catch (Cancelled | InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                end = new Failure(e);
+            }
+            try {
+                handoff.values.put(end);
+            } catch (InterruptedException e) {
+                // 生成器已经被回收
+            }
+        };
+        CLEANER.register(this, handoff);
+        defineMethods();
+    }
+
+    private void defineMethods() {
+        set("iter", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return LoxGenerator.this;
+            }
+
+            @Override
+            public String toString() {
+                return "<native: iter>";
+            }
+        });
+        set("hasNext", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return hasNext();
+            }
+
+            @Override
+            public String toString() {
+                return "<native: hasNext>";
+            }
+        });
+        set("next", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return next();
+            }
+
+            @Override
+            public String toString() {
+                return "<native: next>";
+            }
+        });
+    }
+
+    boolean hasNext() {
+        lock.lock();
+        try {
+            if (lookahead == null && !finished) {
+                advance();
+            }
+            return !finished;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Object next() {
+        lock.lock();
+        try {
+            if (!hasNext()) {
+                throw new LoxRuntimeError(null, "the generator %s has no more elements".formatted(name));
+            }
+            Object value = lookahead;
+            lookahead = null;
+            return value == NIL ? null : value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 让生成器的线程执行到下一个 yield 或者函数结束，取得结果
+     */
+    private void advance() {
+        Object item;
+        try {
+            if (body != null) {
+                handoff.thread = Thread.ofVirtual().name("lox-generator-" + name).start(body);
+                body = null;
+            }
+            handoff.resumes.put(Boolean.TRUE);
+            item = handoff.values.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LoxRuntimeError(null, "interrupted while waiting for the generator " + name);
+        }
+        if (item == DONE) {
+            finished = true;
+        } else if (item instanceof Failure failure) {
+            finished = true;
+            throw failure.error;
+        } else {
+            lookahead = item;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<generator: %s>".formatted(name);
+    }
+}
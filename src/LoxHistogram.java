@@ -0,0 +1,90 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>记录非负整数（通常是纳秒）的分布，用于计算百分位数。</p>
+ * 与 HdrHistogram 相同，桶是对数-线性的：小于 128 的值各占一个桶；更大的值按最高位分组，每组再线性地分为 64 个桶。
+ * 因此任何值的相对误差都不超过 1/64（约 1.6%），而覆盖整个 long 的范围只需要 3712 个桶。
+ * 记录是无锁的，可以被多个线程同时调用。
+ */
+public class LoxHistogram {
+
+    private static final int LINEAR = 128; // 小于它的值精确记录
+    private static final int SUB_BITS = 6; // 每组 2^6 = 64 个桶
+    private static final int BUCKETS = ((63 - SUB_BITS) << SUB_BITS) + LINEAR;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    static int bucketOf(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS; // 使得 value >>> shift 落在 [64, 128) 之中
+        return (shift << SUB_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * @return 落入该桶的最大的值
+     */
+    static long highestValueOf(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        int shift = (bucket >> SUB_BITS) - 1;
+        long mantissa = bucket - ((long) shift << SUB_BITS);
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * @param value 负数被当作 0
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(bucketOf(value));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+        min.accumulateAndGet(value, Math::min);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long count() {
+        return total.get();
+    }
+
+    public long min() {
+        return count() == 0 ? 0 : min.get();
+    }
+
+    public long max() {
+        return count() == 0 ? 0 : max.get();
+    }
+
+    public double mean() {
+        long n = count();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @param percentile [0, 100] 之间
+     * @return 至少有 percentile% 的记录不大于的值。结果位于真实值所在的桶的上界，但不会超过记录过的最大值
+     */
+    public long valueAtPercentile(double percentile) {
+        long n = count();
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueOf(i), max());
+            }
+        }
+        return max();
+    }
+}
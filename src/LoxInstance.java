@@ -6,10 +6,13 @@ public class LoxInstance {
 
     public LoxInstance(LoxClass loxClass) {
         this.loxClass = loxClass;
+        if (LoxMetrics.ENABLED) {
+            LoxMetrics.instanceCreated(loxClass);
+        }
     }
 
-    public LoxInstance(HashMap<String, Object> fields) {
-        this(LoxClass.origin);
+    public LoxInstance(LoxClass loxClass, HashMap<String, Object> fields) {
+        this(loxClass);
         this.fields = fields;
     }
 
@@ -72,8 +75,8 @@ public class LoxInstance {
 
     public static class LoxModule extends LoxInstance{
         String moduleName;
-        public LoxModule(String name, Environment env) {
-            super(env.values);
+        public LoxModule(String name, Environment env, LoxClass origin) {
+            super(origin, env.values);
             this.moduleName = name;
         }
 
@@ -86,4 +89,11 @@ public class LoxInstance {
     public LoxClass getLoxClass() {
         return loxClass;
     }
+
+    /**
+     * @return native.type 报告的类型名。没有类的 native 对象返回 Native
+     */
+    public String typeName() {
+        return loxClass == null ? "Native" : loxClass.name;
+    }
 }
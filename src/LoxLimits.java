@@ -0,0 +1,117 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>一个 {@link LoxContext} 的执行限制：步数（循环的回边与函数调用）、运行时间、分配的内存。默认都不限制。</p>
+ * 解释器在每个回边（{@link Interpreter#visitWhileStmt}）和每次函数调用（{@link LoxFunction}）处调用
+ * {@link Interpreter#safepoint()}，它只把 interpreter 自己的计数器减一，每 {@value #CHECK_INTERVAL} 步才调用一次 {@link #check}。
+ * 因此没有设置限制时几乎没有开销，设置了限制时检查的开销也被均摊了；代价是步数限制的精度为 {@value #CHECK_INTERVAL} 步。
+ * <p>超出限制时抛出 {@link LoxRuntimeError.LimitExceeded}。lox 代码无法捕获它，它会像其他运行时错误一样结束这次运行，
+ * 嵌入者可以在 java 中捕获它（{@link LoxScriptEngine} 会把它转换为 ScriptException）。
+ * <p>fork 出来的 interpreter（spawn 的任务、parallel with 与 par* 的工作线程）共享同一个 context 的限制：步数和内存是它们的总和。
+ * 内存按线程分配的字节数统计（{@code ThreadMXBean#getCurrentThreadAllocatedBytes}），从 {@link #begin} 设置的基准开始计算，虚拟线程上的分配不计入，
+ * 也就是说 spawn 的任务只受步数和时间的限制。阻塞在 channel 或者 join 上的代码不会经过检查点。
+ */
+public class LoxLimits {
+
+    static final int CHECK_INTERVAL = 1024;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private volatile long maxSteps; // 0 表示不限制
+    private volatile long timeoutNanos;
+    private volatile long maxAllocatedBytes;
+
+    private final LongAdder steps = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+    private volatile long deadline;
+    private volatile int generation; // 每次 start 加一，interpreter 据此丢弃上一次运行留下的分配基准
+
+    public void setMaxSteps(long maxSteps) {
+        this.maxSteps = maxSteps;
+    }
+
+    public void setTimeoutMillis(long millis) {
+        this.timeoutNanos = millis * 1_000_000;
+    }
+
+    public void setMaxAllocatedBytes(long bytes) {
+        this.maxAllocatedBytes = bytes;
+    }
+
+    /**
+     * 使用 other 的限制设置。用于 {@link LoxScriptEngine}：它的设置作用于每个线程的 context
+     */
+    void copySettings(LoxLimits other) {
+        maxSteps = other.maxSteps;
+        timeoutNanos = other.timeoutNanos;
+        maxAllocatedBytes = other.maxAllocatedBytes;
+    }
+
+    boolean enabled() {
+        return maxSteps > 0 || timeoutNanos > 0 || maxAllocatedBytes > 0;
+    }
+
+    /**
+     * 开始一次新的运行：清零步数和分配的内存，重新计时。由 {@link LoxContext} 在每次运行之前调用
+     * @param interpreter 在当前线程上执行这次运行的 interpreter
+     */
+    void start(Interpreter interpreter) {
+        steps.reset();
+        allocated.reset();
+        deadline = System.nanoTime() + timeoutNanos;
+        generation++;
+        begin(interpreter);
+    }
+
+    /**
+     * 以当前线程已经分配的字节数作为 interpreter 的分配基准，之后的分配从这里开始计入。
+     * 必须在执行它的线程上调用：运行开始时（{@link #start}）以及 fork 出来的 interpreter 开始工作时。
+     * 否则第一个检查点之前的分配不会被计入
+     */
+    void begin(Interpreter interpreter) {
+        if (maxAllocatedBytes <= 0) {
+            return;
+        }
+        long now = THREADS.getCurrentThreadAllocatedBytes();
+        if (now >= 0) {
+            interpreter.allocationMark = now;
+            interpreter.allocationGeneration = generation;
+        }
+    }
+
+    /**
+     * interpreter 又走过了 {@link #CHECK_INTERVAL} 步
+     */
+    void check(Interpreter interpreter) {
+        if (!enabled()) {
+            return;
+        }
+        if (maxSteps > 0) {
+            steps.add(CHECK_INTERVAL);
+            if (steps.sum() > maxSteps) {
+                throw new LoxRuntimeError.LimitExceeded("steps", "execution exceeded the limit of %d steps".formatted(maxSteps));
+            }
+        }
+        if (timeoutNanos > 0 && System.nanoTime() - deadline > 0) {
+            throw new LoxRuntimeError.LimitExceeded("timeout",
+                    "execution exceeded the time limit of %d ms".formatted(timeoutNanos / 1_000_000));
+        }
+        if (maxAllocatedBytes > 0) {
+            long now = THREADS.getCurrentThreadAllocatedBytes();
+            if (now < 0) {
+                return;
+            }
+            if (interpreter.allocationGeneration == generation) {
+                allocated.add(now - interpreter.allocationMark);
+            }
+            interpreter.allocationMark = now;
+            interpreter.allocationGeneration = generation;
+            if (allocated.sum() > maxAllocatedBytes) {
+                throw new LoxRuntimeError.LimitExceeded("memory",
+                        "execution exceeded the allocation limit of %d bytes".formatted(maxAllocatedBytes));
+            }
+        }
+    }
+}
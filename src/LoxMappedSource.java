@@ -0,0 +1,43 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>把一个（映射到内存的）UTF-8 文件的字节直接当作 {@link CharSequence} 交给 {@link LoxScanner}，源码既不会被解码，也不会被复制到堆上。</p>
+ * 下标是字节的偏移量，{@link #charAt(int)} 返回的是字节本身（0 ~ 255）。lox 的语法只由 ASCII 字符构成，
+ * 而 UTF-8 中多字节字符的每一个字节都大于 127，不会被误认为是任何符号、数字、字母或者换行，因此扫描的结果与先解码再扫描相同。
+ * 多字节字符只可能出现在字符串字面量和注释中：注释被直接跳过，字符串字面量（以及其他需要生成字符串的 token）
+ * 通过 {@link #subSequence(int, int)} 的 {@link #toString()} 解码，每次只解码这一段。
+ */
+public class LoxMappedSource implements CharSequence {
+
+    private final ByteBuffer bytes;
+
+    public LoxMappedSource(ByteBuffer bytes) {
+        this.bytes = bytes;
+    }
+
+    @Override
+    public int length() {
+        return bytes.limit();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (bytes.get(index) & 0xff);
+    }
+
+    @Override
+    public LoxMappedSource subSequence(int start, int end) {
+        return new LoxMappedSource(bytes.slice(start, end - start));
+    }
+
+    /**
+     * @return 把这一段字节按 UTF-8 解码得到的字符串
+     */
+    @Override
+    public String toString() {
+        byte[] copy = new byte[bytes.limit()];
+        bytes.get(0, copy);
+        return new String(copy, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>{@code memoize(fn, maxEntries)} 的返回值：一个带有缓存的 callable，可以像 fn 一样调用。</p>
+ * 缓存以参数列表为键，参数的相等性与 {@code ==} 相同（{@link Interpreter#isEqual}）：数字、字符串、布尔值和 nil 按值比较，
+ * 数组和对象按引用比较。最多保存 maxEntries 个结果，超出时淘汰最久没有被使用的（LRU）。
+ * 设置了 ttl（毫秒）时，超过 ttl 的结果被视为不存在，会重新计算。
+ * <p>计算 fn 的时候不持有锁，因此 fn 可以递归地调用被缓存的自己，多个线程也可以同时调用；
+ * 代价是同一组参数可能被同时计算多次。fn 应当是纯函数。
+ * <p>lox 代码可见的方法：
+ * <ul>
+ *     <li>{@code stats()}：返回一个对象，字段为 hits、misses、evictions（因为容量而淘汰）、expired（因为 ttl 而失效）、size、hitRate</li>
+ *     <li>{@code clear()}：清空缓存和统计</li>
+ * </ul>
+ */
+public class LoxMemo extends LoxInstance implements LoxCallable {
+
+    private record Entry(Object value, long expiresAt) {
+    }
+
+    private final LoxCallable fn;
+    private final int maxEntries;
+    private final long ttlNanos; // 0 表示不会过期
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<List<Object>, Entry> cache;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expired;
+
+    LoxMemo(LoxCallable fn, int maxEntries, long ttlMillis) {
+        super((LoxClass) null);
+        this.fn = fn;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000;
+        // accessOrder 为 true 时，迭代顺序从最久没有被访问的条目开始
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest) {
+                if (size() > LoxMemo.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+        defineMethods();
+    }
+
+    @Override
+    public int arity() {
+        return fn.arity();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        List<Object> key = new ArrayList<>(arguments.size());
+        for (Object argument : arguments) {
+            // 1 与 1.0 是同一个 lox 值，作为键时也要相等。等于某个 long 的 double 统一为 Long，不同的整数不会因为精度而相同
+            key.add(argument instanceof Double d && Interpreter.isLongValued(d) ? (Object) (long) (double) d : argument);
+        }
+        lock.lock();
+        try {
+            Entry entry = cache.get(key);
+            if (entry != null) {
+                if (ttlNanos == 0 || System.nanoTime() - entry.expiresAt < 0) {
+                    hits++;
+                    return entry.value;
+                }
+                cache.remove(key);
+                expired++;
+            }
+            misses++;
+        } finally {
+            lock.unlock();
+        }
+        Object value = fn.call(interpreter, arguments);
+        lock.lock();
+        try {
+            cache.put(key, new Entry(value, System.nanoTime() + ttlNanos));
+        } finally {
+            lock.unlock();
+        }
+        return value;
+    }
+
+    private LoxInstance stats(LoxClass origin) {
+        HashMap<String, Object> fields = new HashMap<>();
+        lock.lock();
+        try {
+            fields.put("hits", (double) hits);
+            fields.put("misses", (double) misses);
+            fields.put("evictions", (double) evictions);
+            fields.put("expired", (double) expired);
+            fields.put("size", (double) cache.size());
+            fields.put("hitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        } finally {
+            lock.unlock();
+        }
+        return new LoxInstance(origin, fields);
+    }
+
+    private void clear() {
+        lock.lock();
+        try {
+            cache.clear();
+            hits = 0;
+            misses = 0;
+            evictions = 0;
+            expired = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void defineMethods() {
+        set("stats", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return stats(interpreter.originClass);
+            }
+
+            @Override
+            public String toString() {
+                return "<native: stats>";
+            }
+        });
+        set("clear", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                clear();
+                return null;
+            }
+
+            @Override
+            public String toString() {
+                return "<native: clear>";
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "<memoized: %s>".formatted(fn);
+    }
+}
@@ -0,0 +1,186 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>解释器内部的计数器，通过 JMX 暴露（{@code jlox:type=Interpreter}）。</p>
+ * 只有在启动时指定 {@code -Dlox.metrics=true} 才会计数。{@link #ENABLED} 是 static final 的，
+ * 所以关闭时，每个埋点处的 {@code if (LoxMetrics.ENABLED)} 会被 JIT 当作常量整个消除。
+ * 计数器使用 {@link LongAdder}，多个线程（比如后台预读模块的线程）同时计数时不会争用同一个缓存行。
+ * <p>计数器是静态的，整个 JVM 只有一份：同一个进程中的所有 {@link LoxContext}（包括 {@link LoxScriptEngine} 的 context）
+ * 都计入同一组计数器，它们反映的是整个进程，而不是某一个 context。环境、实例等埋点处拿不到所属的 context，
+ * 按 context 区分需要在这些热路径上多传递一个引用，而关闭计数时不应该有任何开销。
+ */
+public class LoxMetrics implements LoxMetricsMXBean {
+
+    public static final boolean ENABLED = Boolean.getBoolean("lox.metrics");
+
+    static final LongAdder environments = new LongAdder();
+    static final LongAdder instances = new LongAdder();
+    static final ConcurrentHashMap<String, LongAdder> instancesByClass = new ConcurrentHashMap<>();
+    static final LongAdder methodLookups = new LongAdder();
+    static final LongAdder methodChainSteps = new LongAdder();
+    static final LongAdder calls = new LongAdder();
+    static final LongAdder boxedDoubles = new LongAdder();
+    static final LongAdder boxedLongs = new LongAdder();
+    static final LongAdder imports = new LongAdder();
+    static final LongAdder scanNanos = new LongAdder();
+    static final LongAdder parseNanos = new LongAdder();
+    static final LongAdder resolveNanos = new LongAdder();
+    static final LongAdder executeNanos = new LongAdder();
+
+    private static boolean registered = false;
+
+    /**
+     * 如果开启了计数，把 MXBean 注册到平台的 MBeanServer 上。重复调用没有效果
+     */
+    public static synchronized void register() {
+        if (!ENABLED || registered) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new LoxMetrics(), new ObjectName("jlox:type=Interpreter"));
+            registered = true;
+        } catch (JMException e) {
+            System.err.println("failed to register lox metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 记录一个实例的创建
+     * @param loxClass 实例的类。native 对象没有类，为 null
+     */
+    static void instanceCreated(LoxClass loxClass) {
+        instances.increment();
+        String name = loxClass == null ? "<native>" : loxClass.name;
+        instancesByClass.computeIfAbsent(name, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * 记录一次方法查找
+     * @param steps 查找过程中访问了继承链上的多少个类
+     */
+    static void methodLookedUp(int steps) {
+        methodLookups.increment();
+        methodChainSteps.add(steps);
+    }
+
+    /**
+     * @return 开启计数时返回当前的 nanoTime，否则返回 0。与 {@link #record(LongAdder, long)} 配合，测量流水线的各个阶段
+     */
+    static long now() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * 把从 start 到现在的时间计入 phase
+     * @return 现在的 nanoTime，作为下一个阶段的 start
+     */
+    static long record(LongAdder phase, long start) {
+        if (!ENABLED) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        phase.add(now - start);
+        return now;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return ENABLED;
+    }
+
+    @Override
+    public long getEnvironmentAllocations() {
+        return environments.sum();
+    }
+
+    @Override
+    public long getInstanceAllocations() {
+        return instances.sum();
+    }
+
+    @Override
+    public Map<String, Long> getInstanceAllocationsByClass() {
+        Map<String, Long> result = new TreeMap<>();
+        instancesByClass.forEach((name, count) -> result.put(name, count.sum()));
+        return result;
+    }
+
+    @Override
+    public long getMethodLookups() {
+        return methodLookups.sum();
+    }
+
+    @Override
+    public long getMethodLookupChainSteps() {
+        return methodChainSteps.sum();
+    }
+
+    @Override
+    public double getAverageMethodLookupChainLength() {
+        long lookups = methodLookups.sum();
+        return lookups == 0 ? 0 : (double) methodChainSteps.sum() / lookups;
+    }
+
+    @Override
+    public long getFunctionCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getBoxedDoubles() {
+        return boxedDoubles.sum();
+    }
+
+    @Override
+    public long getBoxedLongs() {
+        return boxedLongs.sum();
+    }
+
+    @Override
+    public long getImportsLoaded() {
+        return imports.sum();
+    }
+
+    @Override
+    public long getScanNanos() {
+        return scanNanos.sum();
+    }
+
+    @Override
+    public long getParseNanos() {
+        return parseNanos.sum();
+    }
+
+    @Override
+    public long getResolveNanos() {
+        return resolveNanos.sum();
+    }
+
+    @Override
+    public long getExecuteNanos() {
+        return executeNanos.sum();
+    }
+
+    @Override
+    public void reset() {
+        environments.reset();
+        instances.reset();
+        instancesByClass.clear();
+        methodLookups.reset();
+        methodChainSteps.reset();
+        calls.reset();
+        boxedDoubles.reset();
+        boxedLongs.reset();
+        imports.reset();
+        scanNanos.reset();
+        parseNanos.reset();
+        resolveNanos.reset();
+        executeNanos.reset();
+    }
+}
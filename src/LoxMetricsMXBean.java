@@ -0,0 +1,51 @@
+import java.util.Map;
+
+/**
+ * {@link LoxMetrics} 暴露给 JMX 的接口。对象名为 {@code jlox:type=Interpreter}。计数是整个 JVM 的，见 {@link LoxMetrics}
+ */
+public interface LoxMetricsMXBean {
+
+    boolean isEnabled();
+
+    long getEnvironmentAllocations();
+
+    long getInstanceAllocations();
+
+    /**
+     * @return 类名 -> 该类的实例被创建的次数
+     */
+    Map<String, Long> getInstanceAllocationsByClass();
+
+    long getMethodLookups();
+
+    /**
+     * @return 所有方法查找沿着继承链访问过的类的总数
+     */
+    long getMethodLookupChainSteps();
+
+    double getAverageMethodLookupChainLength();
+
+    long getFunctionCalls();
+
+    long getBoxedDoubles();
+
+    /**
+     * @return 整数运算的结果被装箱为 Long 的次数，不包括落在 Long 缓存中的值
+     */
+    long getBoxedLongs();
+
+    long getImportsLoaded();
+
+    long getScanNanos();
+
+    long getParseNanos();
+
+    long getResolveNanos();
+
+    long getExecuteNanos();
+
+    /**
+     * 把所有计数器清零
+     */
+    void reset();
+}
@@ -0,0 +1,184 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * <p>已经 scan、parse、resolve 过的模块的磁盘缓存。</p>
+ * 缓存目录中的每个条目是一个 .loxc 文件（见 {@link LoxAstCodec}），文件名是 编码格式 + 源码内容 的 SHA-256。
+ * 因此源码一旦改变，它对应的键也随之改变，旧条目自然不会再被命中。
+ * <p>缓存目录由系统属性 {@code lox.cache.dir} 指定，默认为 {@code ~/.jlox/cache}。设为 {@code off} 则关闭缓存。
+ * 缓存只是一种加速手段：任何读写错误都会被忽略，退化为重新解析。
+ * <p>每次修改模块都会产生一个新的条目，因此缓存目录的总大小是有上限的：系统属性 {@code lox.cache.max}（单位 MB，默认 {@value #DEFAULT_MAX_MB}）。
+ * 命中时更新条目的修改时间，每次写入新条目之后，如果总大小超过了上限，从最久没有被使用的条目开始删除，直到不超过上限的四分之三。
+ * 写入时被中断而遗留的临时文件也在这时删除。
+ */
+public class LoxModuleCache {
+
+    private static final String SUFFIX = ".loxc";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long DEFAULT_MAX_MB = 64;
+    private static final long STALE_TEMP_MILLIS = 60 * 60 * 1000; // 超过一个小时的临时文件不可能还在被写入
+
+    private final Path dir; // 为 null 时表示缓存被关闭
+    private final long maxBytes;
+
+    public LoxModuleCache(Path dir) {
+        this(dir, DEFAULT_MAX_MB * 1024 * 1024);
+    }
+
+    public LoxModuleCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    public static LoxModuleCache fromSystemProperty() {
+        String property = System.getProperty("lox.cache.dir");
+        long maxBytes = Long.getLong("lox.cache.max", DEFAULT_MAX_MB) * 1024 * 1024;
+        if (property == null) {
+            return new LoxModuleCache(Path.of(System.getProperty("user.home"), ".jlox", "cache"), maxBytes);
+        } else if (property.equalsIgnoreCase("off")) {
+            return new LoxModuleCache(null);
+        } else {
+            return new LoxModuleCache(Path.of(property), maxBytes);
+        }
+    }
+
+    /**
+     * @param source 模块的源码
+     * @return 缓存中与该源码对应的、已经 resolve 过的语句列表。如果未命中，返回 null
+     */
+    public List<Stmt> load(String source) {
+        if (dir == null) {
+            return null;
+        }
+        Path entry = entryOf(source);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+            List<Stmt> statements = LoxAstCodec.read(in);
+            touch(entry);
+            return statements;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            // 条目损坏（比如写入时进程被杀死），删除它，下一次 store 会重新生成
+            try {
+                Files.deleteIfExists(entry);
+            } catch (IOException ignored) {
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 把一个已经 resolve 过的语句列表写入缓存。先写到临时文件，再原子地移动到目标位置，因此并发的读者不会看到写了一半的条目
+     */
+    public void store(String source, List<Stmt> statements) {
+        if (dir == null) {
+            return;
+        }
+        Path entry = entryOf(source);
+        Path temp = null;
+        try {
+            Files.createDirectories(dir);
+            temp = Files.createTempFile(dir, "module", TEMP_SUFFIX);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                LoxAstCodec.write(statements, out);
+            }
+            try {
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+            prune();
+        } catch (IOException | RuntimeException e) {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 把条目标记为刚刚被使用过。失败时只是让它更早被删除
+     */
+    private static void touch(Path entry) {
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * 总大小超过上限时，按修改时间从旧到新删除条目，直到不超过上限的四分之三，这样不必在之后的每次写入时都删除。
+     * 其他进程可能同时在删除，已经不存在的文件被忽略
+     */
+    private void prune() throws IOException {
+        record Entry(Path path, long size, long modified) {
+        }
+        List<Entry> entries = new ArrayList<>();
+        long total = 0;
+        long now = System.currentTimeMillis();
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.toList();
+        }
+        for (Path path : files) {
+            String name = path.getFileName().toString();
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (IOException e) {
+                continue;
+            }
+            long modified = attributes.lastModifiedTime().toMillis();
+            if (name.endsWith(TEMP_SUFFIX) && now - modified > STALE_TEMP_MILLIS) {
+                Files.deleteIfExists(path);
+            } else if (name.endsWith(SUFFIX)) {
+                entries.add(new Entry(path, attributes.size(), modified));
+                total += attributes.size();
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        entries.sort(Comparator.comparingLong(Entry::modified));
+        for (Entry entry : entries) {
+            if (total <= maxBytes / 4 * 3) {
+                break;
+            }
+            Files.deleteIfExists(entry.path());
+            total -= entry.size();
+        }
+    }
+
+    private Path entryOf(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(LoxAstCodec.fingerprint());
+            digest.update(source.getBytes(StandardCharsets.UTF_8));
+            return dir.resolve(HexFormat.of().formatHex(digest.digest()) + SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            // 每个 Java 平台都必须支持 SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
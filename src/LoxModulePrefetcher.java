@@ -0,0 +1,231 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>在执行之前，并行地预读整个导入图。</p>
+ * import 语句只有在执行到的时候才会被处理，于是模块的读取和解析原本是串行地、逐个发生的。
+ * prefetch 会遍历语句列表中的所有 {@link Stmt.Import}（包括嵌套在 block、函数、类之中的），
+ * 在线程池上并发地读取文件、查询 {@link LoxModuleCache}、或者 scan + parse，并递归地处理这些模块自身的 import。
+ * <p>resolve 和执行仍然发生在 interpreter 的线程上：{@link Interpreter} 执行到 import 时，通过 {@link #take(Path)} 取走已经解析好的模块。
+ * <p>预读的模块不一定真的会被导入（比如 import 位于一个没有执行的分支之中），所以后台解析时产生的错误不会被报告，
+ * 而是放弃这次预读，让执行到 import 时的同步解析按原来的顺序报告错误。
+ * 同样的原因，一次运行结束时，没有被取走的模块由 {@link #discard()} 丢弃，它们的 AST 不会在 context 的整个生命周期中被保留。
+ */
+public class LoxModulePrefetcher {
+
+    private static final ExecutorService pool = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()),
+            runnable -> {
+                Thread thread = new Thread(runnable, "lox-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final LoxModuleCache cache;
+    private final ConcurrentHashMap<Path, Future<Module>> modules = new ConcurrentHashMap<>();
+
+    public LoxModulePrefetcher(LoxModuleCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * 一个已经读取、解析好的模块
+     */
+    static class Module {
+        final String source;
+        final List<Stmt> statements;
+        final boolean resolved; // 如果来自缓存，节点上已经带有深度，模块不需要再 resolve
+
+        Module(String source, List<Stmt> statements, boolean resolved) {
+            this.source = source;
+            this.statements = statements;
+            this.resolved = resolved;
+        }
+    }
+
+    /**
+     * 在后台开始预读这些语句中出现的所有模块，以及它们传递依赖的模块。该函数不会阻塞。
+     * @param dir 这些语句所在的目录，import 的路径相对于它
+     */
+    public void prefetch(List<Stmt> statements, String dir) {
+        for (Stmt.Import stmt : ImportCollector.collect(statements)) {
+            Path path;
+            try {
+                path = Path.of(dir, stmt.path.literal + ".lox").toRealPath();
+            } catch (IOException | RuntimeException e) {
+                continue; // 找不到的模块留给执行时报告
+            }
+            modules.computeIfAbsent(path, p -> pool.submit(() -> load(p)));
+        }
+    }
+
+    /**
+     * 取走一个预读好的模块。如果它还在解析中，等待它完成。
+     * @return 如果这个模块没有被预读，或者预读失败，返回 null。此时调用者应当自己同步地读取和解析
+     */
+    public Module take(Path path) {
+        Future<Module> future = modules.remove(path);
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * 取消并丢弃所有还没有被取走的模块。由 {@link LoxContext} 在一次运行结束时调用
+     */
+    public void discard() {
+        modules.values().removeIf(future -> {
+            future.cancel(true);
+            return true;
+        });
+    }
+
+    private Module load(Path path) throws IOException {
+        String source = Files.readString(path);
+        String dir = path.getParent().toString();
+
+        List<Stmt> cached = cache.load(source);
+        if (Thread.interrupted()) {
+            return null; // 已经被 discard，不再预读它的依赖
+        }
+        if (cached != null) {
+            prefetch(cached, dir);
+            return new Module(source, cached, true);
+        }
+
+        List<String> errors = new ArrayList<>();
+        LoxContext.errorCollector.set(errors);
+        List<Stmt> statements;
+        try {
+            long time = LoxMetrics.now();
+            List<Token> tokens = new LoxScanner(source).scanTokens();
+            time = LoxMetrics.record(LoxMetrics.scanNanos, time);
+            statements = new LoxParser(tokens).parse();
+            LoxMetrics.record(LoxMetrics.parseNanos, time);
+        } catch (RuntimeException e) {
+            return null;
+        } finally {
+            LoxContext.errorCollector.remove();
+        }
+        if (!errors.isEmpty() || Thread.interrupted()) {
+            return null;
+        }
+        prefetch(statements, dir);
+        return new Module(source, statements, false);
+    }
+
+    /**
+     * 找出一个语句列表中所有的 import 语句，包括嵌套在其他语句中的。表达式中不可能出现语句，所以只需要遍历语句
+     */
+    private static class ImportCollector implements Stmt.Visitor<Void> {
+        private final List<Stmt.Import> imports = new ArrayList<>();
+
+        static List<Stmt.Import> collect(List<Stmt> statements) {
+            ImportCollector collector = new ImportCollector();
+            collector.visitAll(statements);
+            return collector.imports;
+        }
+
+        private void visit(Stmt stmt) {
+            if (stmt != null) {
+                stmt.accept(this);
+            }
+        }
+
+        private void visitAll(List<? extends Stmt> statements) {
+            for (Stmt stmt : statements) {
+                visit(stmt);
+            }
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            visitAll(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            visitAll(stmt.methods);
+            visitAll(stmt.staticMethods);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            visitAll(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            visit(stmt.thenBranch);
+            visit(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            visit(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitVarTupleStmt(Stmt.VarTuple stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitImportStmt(Stmt.Import stmt) {
+            imports.add(stmt);
+            return null;
+        }
+
+        @Override
+        public Void visitParallelWithStmt(Stmt.ParallelWith stmt) {
+            visit(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitYieldStmt(Stmt.Yield stmt) {
+            return null;
+        }
+    }
+}
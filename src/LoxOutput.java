@@ -0,0 +1,56 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+
+/**
+ * <p>{@code print} 语句和 repl 回显的输出缓冲区，每个 {@link LoxContext} 一个。</p>
+ * 值被直接 stringify 到缓冲区中（见 {@link Interpreter#stringifyTo}），缓冲区满了才整块写出，
+ * 而不是每个 print 都经过一次加锁、自动 flush 的 {@code System.out.println}。
+ * <p>以下情况会 flush：缓冲区满、一次运行结束、调用 {@code native.flush()}、repl 输出提示符之前、报告错误之前
+ * （保证错误信息出现在它之前的输出之后）。如果 stdout 是终端，每一行都会立即 flush，交互时看不出区别。
+ * <p>多个线程（spawn 的任务、parallel with 的工作线程）可以同时输出，每一行是完整的。
+ */
+public class LoxOutput {
+
+    static final int CAPACITY = 1 << 16;
+
+    private final StringBuilder buffer = new StringBuilder(CAPACITY);
+    private final boolean lineFlush = System.console() != null;
+    private Writer target; // 为 null 时写到 flush 时的 System.out，因此 System.setOut 依然有效
+
+    /**
+     * 把输出写到 writer 而不是 stdout。之前缓冲的内容会先写到原来的目标。writer 为 null 时恢复为 stdout
+     */
+    public synchronized void redirect(Writer writer) {
+        flush();
+        target = writer;
+    }
+
+    public synchronized void println(Object value) {
+        Interpreter.stringifyTo(buffer, value);
+        buffer.append('\n');
+        if (lineFlush || buffer.length() >= CAPACITY) {
+            flush();
+        }
+    }
+
+    public synchronized void flush() {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        try {
+            if (target == null) {
+                PrintStream out = System.out;
+                out.append(buffer);
+                out.flush();
+            } else {
+                target.append(buffer);
+                target.flush();
+            }
+        } catch (IOException e) {
+            throw new LoxRuntimeError(null, "failed to write output: " + e.getMessage());
+        } finally {
+            buffer.setLength(0);
+        }
+    }
+}
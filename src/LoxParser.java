@@ -9,9 +9,31 @@ public class LoxParser {
 
     private final List<Token> tokens;
     private int current = 0; // 该指针指向了当前正在解析的那个 token。目前，它只会由 match 和 synchronize 两个函数移动
+    private final LoxScanner scanner; // 流式解析时，tokens 只是一个缓冲区，其中的 token 按需从 scanner 中读取。否则为 null
+    private LoxContext context; // 错误报告给它；repl 模式也由它决定
+    private boolean sawYield; // 当前正在解析的函数体中是否出现了 yield 语句
 
     public LoxParser(List<Token> tokens) {
         this.tokens = tokens;
+        this.scanner = null;
+        this.context = LoxContext.detached();
+    }
+
+    /**
+     * 流式解析：token 按需从 scanner 中读取，配合 {@link #hasNext()} 和 {@link #next()} 每次只解析一个顶层语句
+     */
+    public LoxParser(LoxScanner scanner) {
+        this.tokens = new ArrayList<>();
+        this.scanner = scanner;
+        this.context = scanner.getContext();
+    }
+
+    /**
+     * 把解析错误报告给 context。默认报告给一个独立的 context，只输出错误，不影响任何正在运行的代码
+     */
+    public LoxParser reportTo(LoxContext context) {
+        this.context = context;
+        return this;
     }
 
     /**
@@ -28,6 +50,28 @@ public class LoxParser {
         return statements;
     }
 
+    /**
+     * @return 是否还有下一个顶层语句
+     */
+    public boolean hasNext() {
+        return !isEnd();
+    }
+
+    /**
+     * 解析下一个顶层语句。流式解析时，之后已经用不到的 token 会被释放，因此内存占用不随源码的长度增长
+     *
+     * @return 下一个顶层语句。如果出现了解析错误，为 null
+     */
+    public Stmt next() {
+        Stmt stmt = declaration();
+        if (scanner != null && current > 1) {
+            // 保留最后一个 token，使得 previous 仍然可用
+            tokens.subList(0, current - 1).clear();
+            current = 1;
+        }
+        return stmt;
+    }
+
     private Stmt declaration() {
         try {
             if (match(TokenType.VAR)) {
@@ -46,7 +90,7 @@ public class LoxParser {
                 return statement();
             }
         } catch (ParseError e) {
-            if (Lox.repl) {
+            if (context.repl) {
                 // repl 模式下，不再继续解析，而是直接出错。
                 throw e;
             } else {
@@ -126,7 +170,7 @@ public class LoxParser {
 
     private Stmt statement() {
         // 如果此处应该有某个语句，但所有输入已经结束，且这是 REPL 模式，那么我们视为 repl pending
-        if (isEnd() && Lox.repl) {
+        if (isEnd() && context.repl) {
             throw new ReplPending();
         }
         if (match(TokenType.PRINT)) {
@@ -141,8 +185,12 @@ public class LoxParser {
             return forStatement();
         } else if (match(TokenType.RETURN)) {
             return returnStatement();
+        } else if (match(TokenType.YIELD)) {
+            return yieldStatement();
         } else if (match(TokenType.WITH)) {
             return withEachStatement();
+        } else if (checkParallelWith()) {
+            return parallelWithStatement();
         } else {
             return expressionStatement();
         }
@@ -160,6 +208,20 @@ public class LoxParser {
         return new Stmt.Return(token, returnExpr);
     }
 
+    /**
+     * yield value; 或者 yield;（产生 nil）。它所在的函数因此成为生成器，见 {@link #functionDeclaration()}
+     */
+    private Stmt yieldStatement() {
+        Token token = previous();
+        Expr value = null;
+        if (!match(TokenType.SEMICOLON)) {
+            value = expression();
+            consume(TokenType.SEMICOLON, "A semicolon is needed here");
+        }
+        sawYield = true;
+        return new Stmt.Yield(token, value);
+    }
+
     private Stmt.Function functionDeclaration() {
         Token name = consume(TokenType.IDENTIFIER, "A function name is required");
         consume(TokenType.LEFT_PAREN, "A ( is required for function");
@@ -174,8 +236,17 @@ public class LoxParser {
             consume(TokenType.RIGHT_PAREN, "A ) is needed for function");
         }
         consume(TokenType.LEFT_BRACE, "A { is needed for function body");
-        List<Stmt> body = block();
-        return new Stmt.Function(name, parameters, body);
+        boolean outerYield = sawYield;
+        sawYield = false;
+        List<Stmt> body;
+        boolean generator;
+        try {
+            body = block();
+        } finally {
+            generator = sawYield;
+            sawYield = outerYield;
+        }
+        return new Stmt.Function(name, parameters, body, generator);
     }
 
     /**
@@ -301,6 +372,35 @@ public class LoxParser {
         return new Stmt.Block(List.of(var_iter_stmt, whileStmt));
     }
 
+    /**
+     * parallel 不是关键字，只有当它后面紧跟着 with 时才被视为 parallel with 语句的开头，因此它仍然可以作为普通的标识符使用
+     */
+    private boolean checkParallelWith() {
+        Token token = peek();
+        if (token.type != TokenType.IDENTIFIER || !token.lexeme.equals("parallel")) {
+            return false;
+        }
+        fill(current + 1);
+        return current + 1 < tokens.size() && tokens.get(current + 1).type == TokenType.WITH;
+    }
+
+    /**
+     * <pre>
+     *     parallel with num in arr
+     *         body
+     * </pre>
+     * 与 with 语句不同，它不会被展开为 while 循环：元素会被预先取出，再分配给多个线程执行，见 {@link Interpreter#visitParallelWithStmt}
+     */
+    private Stmt parallelWithStatement() {
+        Token keyword = consume(TokenType.IDENTIFIER, "A parallel is needed for parallel with statement");
+        consume(TokenType.WITH, "A with is needed for parallel with statement");
+        Token name = consume(TokenType.IDENTIFIER, "An identifier is needed for parallel with statement");
+        consume(TokenType.IN, "An in is needed for parallel with statement");
+        Expr iterable = expression();
+        Stmt body = statement();
+        return new Stmt.ParallelWith(keyword, name, iterable, body);
+    }
+
     private Stmt whileStatement() {
         consume(TokenType.LEFT_PAREN, "A left parenthesis is required for while statement");
         Expr condition = expression();
@@ -401,7 +501,7 @@ public class LoxParser {
                 case MINUS_MINUS -> new Token(TokenType.MINUS, "-", null, just.line);
                 default -> null;
             };
-            Expr value = new Expr.Binary(expr, operator, new Expr.Literal(1.0));
+            Expr value = new Expr.Binary(expr, operator, new Expr.Literal(1L));
             if (expr instanceof Expr.Variable) {
                 return new Expr.Assign(((Expr.Variable) expr).name, value);
             } else if (expr instanceof Expr.Get) {
@@ -570,6 +670,10 @@ public class LoxParser {
             Token methodName = consume(TokenType.IDENTIFIER, "An method name is always needed after super");
             return new Expr.Super(superKeyword, methodName);
         }
+        // repl 模式下，表达式还没有输入完，比如 var a = 之后换行
+        if (isEnd() && context.repl) {
+            throw new ReplPending();
+        }
         // unrecognized token
         throw parseError(peek(), "The token is at the inappropriate position");
     }
@@ -622,8 +726,8 @@ public class LoxParser {
 
         while (matcher.find()) {
             String exp = matcher.group(1);
-            LoxScanner scanner = new LoxScanner(exp);
-            LoxParser parser = new LoxParser(scanner.scanTokens());
+            LoxScanner scanner = new LoxScanner(exp).reportTo(context);
+            LoxParser parser = new LoxParser(scanner.scanTokens()).reportTo(context);
             Expr expr = parser.expression(); // 对于每个{}中的内容，我们只读取第一个表达式
             exprList.add(expr);
         }
@@ -661,9 +765,25 @@ public class LoxParser {
     }
 
     private Token peek() {
+        fill(current);
         return tokens.get(current);
     }
 
+    /**
+     * 流式解析时，确保缓冲区中至少有 index + 1 个 token（或者已经读到了 EOF）
+     */
+    private void fill(int index) {
+        if (scanner == null) {
+            return;
+        }
+        while (index >= tokens.size()) {
+            if (!tokens.isEmpty() && tokens.get(tokens.size() - 1).type == TokenType.EOF) {
+                return;
+            }
+            tokens.add(scanner.nextToken());
+        }
+    }
+
     private Token previous() {
         return tokens.get(current - 1);
     }
@@ -679,7 +799,7 @@ public class LoxParser {
         if (match(type)) {
             return previous();
         }
-        if (Lox.repl && isEnd()) {
+        if (context.repl && isEnd()) {
             // 如果要的是分号，那么自动补全它
             if (type == TokenType.SEMICOLON) {
                 return new Token(TokenType.SEMICOLON, ";", null, -1);
@@ -698,7 +818,7 @@ public class LoxParser {
      * @return 一个代表错误的 error 对象
      */
     private ParseError parseError(Token token, String message) {
-        Lox.parsingError(token.line, token.lexeme, message);
+        context.parsingError(token.line, token.lexeme, message);
         return new ParseError();
     }
 
@@ -722,6 +842,7 @@ public class LoxParser {
                 case WHILE:
                 case PRINT:
                 case RETURN:
+                case YIELD:
                     return;
             }
             current++;
@@ -729,6 +850,7 @@ public class LoxParser {
     }
 
     private boolean isEnd() {
+        fill(current);
         if (current >= tokens.size()) {
             return true;
         }
@@ -0,0 +1,87 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个 interpreter 中 perf 模块的状态：命名的计数器与计时器。lox 代码通过 {@code native.perf*} 系列函数访问它们，
+ * 通常经由标准库 LoxPerf.lox 中定义的 {@code perf} 模块。
+ */
+public class LoxPerf {
+
+    private final long origin = System.nanoTime();
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LoxHistogram> timers = new ConcurrentHashMap<>();
+
+    /**
+     * @return 单调的纳秒时钟。以 interpreter 创建的时刻为零点，因此在 double 中可以精确表示
+     */
+    public long now() {
+        return System.nanoTime() - origin;
+    }
+
+    public long count(String name, long delta) {
+        LongAdder counter = counters.computeIfAbsent(name, k -> new LongAdder());
+        counter.add(delta);
+        return counter.sum();
+    }
+
+    public long counter(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    public void record(String name, long nanos) {
+        timers.computeIfAbsent(name, k -> new LoxHistogram()).record(nanos);
+    }
+
+    /**
+     * @param origin 返回的对象的类
+     * @return 一个对象，字段为 count、min、max、mean、p50、p90、p99、p999，单位为纳秒
+     */
+    public LoxInstance stats(String name, LoxClass origin) {
+        LoxHistogram histogram = timers.getOrDefault(name, new LoxHistogram());
+        HashMap<String, Object> fields = new HashMap<>();
+        fields.put("count", (double) histogram.count());
+        fields.put("min", (double) histogram.min());
+        fields.put("max", (double) histogram.max());
+        fields.put("mean", histogram.mean());
+        fields.put("p50", (double) histogram.valueAtPercentile(50));
+        fields.put("p90", (double) histogram.valueAtPercentile(90));
+        fields.put("p99", (double) histogram.valueAtPercentile(99));
+        fields.put("p999", (double) histogram.valueAtPercentile(99.9));
+        return new LoxInstance(origin, fields);
+    }
+
+    public void reset() {
+        counters.clear();
+        timers.clear();
+    }
+
+    /**
+     * @param origin 返回的对象的类
+     * @return 一个对象，字段为堆与非堆的使用量（字节），以及所有垃圾回收器累计的回收次数与耗时（毫秒）
+     */
+    public static LoxInstance snapshot(LoxClass origin) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        MemoryUsage heap = memory.getHeapMemoryUsage();
+        MemoryUsage nonHeap = memory.getNonHeapMemoryUsage();
+        long gcCount = 0;
+        long gcTime = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, collector.getCollectionCount());
+            gcTime += Math.max(0, collector.getCollectionTime());
+        }
+        HashMap<String, Object> fields = new HashMap<>();
+        fields.put("heapUsed", (double) heap.getUsed());
+        fields.put("heapCommitted", (double) heap.getCommitted());
+        fields.put("heapMax", (double) heap.getMax());
+        fields.put("nonHeapUsed", (double) nonHeap.getUsed());
+        fields.put("gcCount", (double) gcCount);
+        fields.put("gcTime", (double) gcTime);
+        return new LoxInstance(origin, fields);
+    }
+}
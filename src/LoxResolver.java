@@ -1,4 +1,7 @@
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Stack;
 
@@ -7,25 +10,109 @@ import java.util.Stack;
  * resolve 只关心变量。如果是一个链式语句，那么也只关心其中的第一个变量。
  * 比如说<pre>a.b().c.d()</pre>这样的语句，我们只resolve第一个 a。剩余的检查都发生在运行时。
  * 如果一个变量没有找到对应的层级，那么它会在运行时动态地被查找。
+ * <p>resolver 同时做捕获分析：记录每个局部变量被哪些函数从外层引用，据此把函数变为只保存自由变量的扁平闭包，见 {@link #flatten()}。
  */
 public class LoxResolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
     private final Interpreter interpreter;
-    private final Stack<HashSet<String >> scopes;
+    private final LoxContext context; // 错误报告给 interpreter 所在的 context
+    private final Stack<Scope> scopes;
     private FunctionType functionType; // 进入函数时会被设置。如果在非函数预警下遇到了 return 语句，产生错误。
+    private boolean generator; // 当前函数是否为生成器。生成器中的 return 不能带有返回值
     private ClassType classType;
+    private int parallelScope = -1; // 位于 parallel with 的循环体中时，循环变量所在的 scope 的下标。在它之前的 scope 中的变量都不能被赋值
+
+    // 捕获分析，在每次 resolve(List) 结束时由 flatten 处理并清空
+    private Closure closure; // 最内层的、可以扁平化的函数
+    private final List<Closure> closures = new ArrayList<>(); // 按照开始 resolve 的顺序，外层的函数在前
+    private final List<Reference> references = new ArrayList<>(); // 跨过了可以扁平化的函数的引用，它们的深度取决于函数是否被扁平化
+    private final List<Stmt.While> loops = new ArrayList<>(); // 复用环境的循环，是否真的可以复用取决于其中的函数是否被扁平化
 
     public LoxResolver(Interpreter interpreter) {
         functionType = FunctionType.None;
         classType = ClassType.None;
         this.interpreter = interpreter;
+        this.context = interpreter.context;
         scopes = new Stack<>();
-        scopes.add(new HashSet<>()); // 全局层
+        scopes.add(new Scope()); // 全局层
     }
 
     public void resolve(List<Stmt> stmts) {
         for (Stmt stmt : stmts) {
             resolve(stmt);
         }
+        flatten();
+    }
+
+    /**
+     * <p>决定哪些函数成为扁平的闭包，并据此修正深度。此时所有的局部 scope 都已经结束，其中申明的名字都已经确定。</p>
+     * 在局部 scope 中用 fun 申明的函数是候选（方法和静态方法不是，它们需要 class 的环境）。候选函数从外层引用到的局部变量是它的自由变量，
+     * 扁平的闭包只保存这些变量，它的外层直接是顶层环境，因此函数还可达时，外层作用域中的其他变量不会因为它而可达。
+     * 被扁平的闭包捕获的变量定义为 {@link Environment.Cell}，定义它的环境和闭包共享同一个 cell，赋值对双方都可见。
+     * <p>以下情况保留整个环境链：函数捕获了不能定义为 cell 的名字（this、super、方法名、导入的名字、元组申明的变量、parallel with 的循环变量），
+     * 或者函数中留给运行时查找的名字在被跳过的外层 scope 中有申明（比如引用了之后才申明的局部函数），扁平化会让运行时的查找找不到它。
+     * <p>循环体中只要没有类和未被扁平化的函数，它的环境就不会被保存，可以在各次迭代之间复用：扁平的闭包只持有 cell，
+     * 而每次迭代都会定义新的 cell。
+     */
+    private void flatten() {
+        for (Closure c : closures) {
+            c.flat = !c.blocked && c.dynamicNames.stream().noneMatch(name -> c.outer.stream().anyMatch(scope -> scope.contains(name)));
+            if (!c.flat) {
+                continue;
+            }
+            for (Upvalue upvalue : c.upvalues.values()) {
+                switch (upvalue.declaration()) {
+                    case Stmt.Var var -> var.captured = true;
+                    case Stmt.Function function -> function.captured = true;
+                    case Stmt.Class klass -> klass.captured = true;
+                    case Param param -> {
+                        if (param.function().capturedParams == null) {
+                            param.function().capturedParams = new boolean[param.function().params.size()];
+                        }
+                        param.function().capturedParams[param.index()] = true;
+                    }
+                    default -> throw new IllegalStateException("cannot capture " + upvalue.declaration());
+                }
+            }
+        }
+        for (Closure c : closures) {
+            if (!c.flat) {
+                continue;
+            }
+            Stmt.Function function = c.declaration;
+            function.upvalues = c.upvalues.keySet().toArray(new String[0]);
+            function.upvalueDepths = new int[function.upvalues.length];
+            int i = 0;
+            for (Upvalue upvalue : c.upvalues.values()) {
+                function.upvalueDepths[i++] = depth(c.scope - 1, upvalue.scope(), c.enclosing);
+            }
+            function.globalDepth = depth(c.scope - 1, 0, c.enclosing);
+        }
+        for (Reference reference : references) {
+            interpreter.resolve(reference.expr(), depth(reference.scope(), reference.declared(), reference.closure()));
+        }
+        for (Stmt.While loop : loops) {
+            if (loop.reused != null && captures(loop.reused)) {
+                loop.reused = null;
+            }
+        }
+        closures.clear();
+        references.clear();
+        loops.clear();
+    }
+
+    /**
+     * @param from 引用所在的 scope 的下标
+     * @param to 名字所在的 scope 的下标
+     * @param innermost 引用处最内层的候选函数
+     * @return 运行时从引用处的环境到名字所在的环境的距离。跨过扁平的闭包时，局部变量在闭包的环境中，顶层的名字在它的外层
+     */
+    private static int depth(int from, int to, Closure innermost) {
+        for (Closure c = innermost; c != null && c.scope > to; c = c.enclosing) {
+            if (c.flat) {
+                return from - c.scope + (to == 0 ? 2 : 1);
+            }
+        }
+        return from - to;
     }
 
     private void resolve(Stmt stmt) {
@@ -43,34 +130,71 @@ public class LoxResolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
      */
     private void resolveLocal(Expr expr, Token token) {
         for (int i = scopes.size() - 1 ; i >= 0; i--) {
-            HashSet<String> env = scopes.get(i);
+            Scope env = scopes.get(i);
             if (env.contains(token.lexeme)) {
                 interpreter.resolve(expr, scopes.size() - 1 - i);
+                capture(expr, token.lexeme, env.names.get(token.lexeme), i);
                 return;
             }
         }
-        if (!Lox.repl) {
+        for (Closure c = closure; c != null; c = c.enclosing) {
+            c.dynamicNames.add(token.lexeme);
+        }
+        if (!context.repl && context.warnings) {
+            context.out.flush();
             System.out.printf("Resolver Warning: the variable [%s] is not resolved, and left to runtime\n", token.lexeme);
         }
     }
 
+    /**
+     * 引用跨过的候选函数都捕获了这个名字（顶层的名字除外，扁平的闭包的外层就是顶层环境）
+     * @param declaration 名字的申明，见 {@link Scope#names}
+     * @param declared 名字所在的 scope 的下标
+     */
+    private void capture(Expr expr, String name, Object declaration, int declared) {
+        if (closure == null || closure.scope <= declared) {
+            return;
+        }
+        for (Closure c = closure; c != null && c.scope > declared; c = c.enclosing) {
+            if (declared > 0) {
+                c.upvalues.putIfAbsent(name, new Upvalue(declaration, declared));
+                if (declaration == null) {
+                    c.blocked = true;
+                }
+            }
+        }
+        references.add(new Reference(expr, scopes.size() - 1, declared, closure));
+    }
+
     private void beginScope() {
-        scopes.push(new HashSet<>());
+        scopes.push(new Scope());
     }
 
     private void endScope() {
         scopes.pop();
     }
 
+    /**
+     * 申明一个不能定义为 cell 的名字
+     */
     private void define(Token name) {
-        if (!scopes.isEmpty()) {
-            scopes.peek().add(name.lexeme);
-        }
+        define(name.lexeme, null);
     }
 
     private void define(String name) {
+        define(name, null);
+    }
+
+    /**
+     * @param declaration 名字的申明，见 {@link Scope#names}
+     */
+    private void define(Token name, Object declaration) {
+        define(name.lexeme, declaration);
+    }
+
+    private void define(String name, Object declaration) {
         if (! scopes.isEmpty()) {
-            scopes.peek().add(name);
+            scopes.peek().names.put(name, declaration);
         }
     }
 
@@ -78,9 +202,26 @@ public class LoxResolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
         resolveLocal(expr, expr.name);
+        checkParallelWrite(expr.name);
         return null;
     }
 
+    /**
+     * parallel with 的循环体可能同时在多个线程上执行，所以它只能给循环内部申明的变量赋值。
+     * 循环体中定义的函数也受到这个限制，因为它们可能在循环体中被调用
+     */
+    private void checkParallelWrite(Token name) {
+        if (parallelScope < 0) {
+            return;
+        }
+        for (int i = scopes.size() - 1; i >= parallelScope; i--) {
+            if (scopes.get(i).contains(name.lexeme)) {
+                return;
+            }
+        }
+        context.resolvingError(name.line, name.lexeme, "a parallel with body can only assign variables declared inside the loop");
+    }
+
     @Override
     public Void visitBinaryExpr(Expr.Binary expr) {
         resolve(expr.left);
@@ -123,6 +264,9 @@ public class LoxResolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
 
     @Override
     public Void visitSetExpr(Expr.Set expr) {
+        if (parallelScope >= 0) {
+            context.resolvingError(expr.name.line, expr.name.lexeme, "a parallel with body can only write loop-local variables and array elements");
+        }
         resolve(expr.object);
         resolve(expr.value);
         return null;
@@ -151,7 +295,7 @@ public class LoxResolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (classType != ClassType.Class) {
-            Lox.resolvingError(expr.keyword.line, expr.keyword.lexeme, "the this keyword is only allowed inside a class");
+            context.resolvingError(expr.keyword.line, expr.keyword.lexeme, "the this keyword is only allowed inside a class");
             return null;
         }
         resolveLocal(expr, expr.keyword);
@@ -193,6 +337,7 @@ public class LoxResolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
     public Void visitTupleUnpackExpr(Expr.TupleUnpackExpr expr) {
         resolve(expr.right);
         resolve(expr.left);
+        checkParallelWrite(expr.left);
         return null;
     }
 
@@ -204,7 +349,7 @@ public class LoxResolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (classType != ClassType.Class) {
-            Lox.resolvingError(expr.superKeyword.line, expr.superKeyword.lexeme, "the this keyword is only allowed inside a class");
+            context.resolvingError(expr.superKeyword.line, expr.superKeyword.lexeme, "the this keyword is only allowed inside a class");
             return null;
         }
         resolveLocal(expr, expr.superKeyword);
@@ -212,45 +357,88 @@ public class LoxResolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
     }
 
     /**
-     * block具有新一层 scope
+     * block具有新一层 scope。如果 block 中没有申明任何东西，那么它不需要 scope，执行时也不创建环境
      * @param stmt block
      * @return null
      */
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        beginScope();
+        stmt.scoped = declares(stmt.statements);
+        if (stmt.scoped) {
+            beginScope();
+        }
         for (Stmt statement : stmt.statements) {
             resolve(statement);
         }
-        endScope();
+        if (stmt.scoped) {
+            endScope();
+        }
         return null;
     }
 
+    /**
+     * @return 这些语句是否会在当前环境中定义变量、函数、类或者导入的名字
+     */
+    private static boolean declares(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var || statement instanceof Stmt.VarTuple || statement instanceof Stmt.Function
+                    || statement instanceof Stmt.Class || statement instanceof Stmt.Import) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 这个语句中（包括嵌套的 block、if、循环）是否有类或者没有被扁平化的函数的申明。只有它们会把当前环境保存为闭包
+     */
+    private static boolean captures(Stmt stmt) {
+        if (stmt instanceof Stmt.Function function) {
+            return function.upvalues == null;
+        } else if (stmt instanceof Stmt.Class) {
+            return true;
+        } else if (stmt instanceof Stmt.Block block) {
+            for (Stmt statement : block.statements) {
+                if (captures(statement)) {
+                    return true;
+                }
+            }
+        } else if (stmt instanceof Stmt.If ifStmt) {
+            return captures(ifStmt.thenBranch) || (ifStmt.elseBranch != null && captures(ifStmt.elseBranch));
+        } else if (stmt instanceof Stmt.While whileStmt) {
+            return captures(whileStmt.body);
+        } else if (stmt instanceof Stmt.ParallelWith parallel) {
+            return captures(parallel.body);
+        }
+        return false;
+    }
+
     @Override
     public Void visitClassStmt(Stmt.Class stmt) {
 
-        define(stmt.name);
+        define(stmt.name, stmt);
         if (stmt.superName != null) {
             resolve(stmt.superName);
         }
         ClassType old = classType;
         classType = ClassType.Class;
         beginScope(); // 这一层是 class 的静态环境，其中储存着静态函数和静态变量, and super
-        scopes.peek().add("super");
+        define("super");
         for (Stmt.Var staticVariable : stmt.staticVariables) {
             resolve(staticVariable);
         }
         for (Stmt.Function staticMethod : stmt.staticMethods) {
-            resolve(staticMethod);
+            define(staticMethod.name);
+            resolveFunction(staticMethod, FunctionType.Function, false);
         }
         beginScope(); // 这层环境中只有 this
-        scopes.peek().add("this");
+        define("this");
         for (Stmt.Function method : stmt.methods) {
             define(method.name);
             if (method.name.lexeme.equals("init")) {
-                resolveFunction(method, FunctionType.Initializer);
+                resolveFunction(method, FunctionType.Initializer, false);
             } else {
-                resolveFunction(method, FunctionType.Function);
+                resolveFunction(method, FunctionType.Function, false);
             }
         }
         endScope();
@@ -265,18 +453,35 @@ public class LoxResolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
         return null;
     }
 
-    private void resolveFunction(Stmt.Function function, FunctionType type) {
+    /**
+     * @param candidate 函数是否可以成为扁平的闭包，见 {@link #flatten()}
+     */
+    private void resolveFunction(Stmt.Function function, FunctionType type, boolean candidate) {
+        if (function.generator && type == FunctionType.Initializer) {
+            context.resolvingError(function.name.line, function.name.lexeme, "an initializer cannot be a generator");
+        }
         FunctionType oldType = functionType;
+        boolean oldGenerator = generator;
         functionType = type;
+        generator = function.generator;
+        Closure oldClosure = closure;
         beginScope();
-        for (Token param : function.params) {
-            define(param);
+        if (candidate) {
+            int scope = scopes.size() - 1;
+            closure = new Closure(function, oldClosure, scope, new ArrayList<>(scopes.subList(1, scope)));
+            scopes.peek().function = closure;
+            closures.add(closure);
+        }
+        for (int i = 0; i < function.params.size(); i++) {
+            define(function.params.get(i), new Param(function, i));
         }
         for (Stmt s : function.body) {
             resolve(s);
         }
         endScope();
+        closure = oldClosure;
         functionType = oldType;
+        generator = oldGenerator;
     }
 
     /**
@@ -286,8 +491,8 @@ public class LoxResolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
      */
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        define(stmt.name);
-        resolveFunction(stmt, FunctionType.Function);
+        define(stmt.name, stmt);
+        resolveFunction(stmt, FunctionType.Function, scopes.size() > 1);
         return null;
     }
 
@@ -310,11 +515,35 @@ public class LoxResolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (functionType == FunctionType.Initializer) {
-            Lox.resolvingError(stmt.keyword.line, stmt.keyword.lexeme, "the return keyword is not allowed inside an initializer");
+            context.resolvingError(stmt.keyword.line, stmt.keyword.lexeme, "the return keyword is not allowed inside an initializer");
+            return null;
+        }
+        if (functionType == FunctionType.Parallel) {
+            context.resolvingError(stmt.keyword.line, stmt.keyword.lexeme, "the return keyword is not allowed inside a parallel with body");
             return null;
         }
         if (functionType != FunctionType.Function) {
-            Lox.resolvingError(stmt.keyword.line, stmt.keyword.lexeme, "the return keyword is only allowed inside a function");
+            context.resolvingError(stmt.keyword.line, stmt.keyword.lexeme, "the return keyword is only allowed inside a function");
+            return null;
+        }
+        if (stmt.value != null) {
+            if (generator) {
+                context.resolvingError(stmt.keyword.line, stmt.keyword.lexeme, "a generator cannot return a value");
+                return null;
+            }
+            resolve(stmt.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        if (functionType == FunctionType.Parallel) {
+            context.resolvingError(stmt.keyword.line, stmt.keyword.lexeme, "the yield keyword is not allowed inside a parallel with body");
+            return null;
+        }
+        if (functionType == FunctionType.None) {
+            context.resolvingError(stmt.keyword.line, stmt.keyword.lexeme, "the yield keyword is only allowed inside a function");
             return null;
         }
         if (stmt.value != null) {
@@ -333,14 +562,16 @@ public class LoxResolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
         if (scopes.isEmpty()) {
             return null;
         }
-        if (scopes.peek().contains(stmt.name.lexeme)) {
-            Lox.resolvingError(stmt.name.line, stmt.name.lexeme, "Cannot re-declare the same identifier in the same local scope");
+        // repl 的整个会话共享同一个 resolver，允许在全局作用域中重新申明变量
+        boolean replGlobal = context.repl && scopes.size() == 1;
+        if (!replGlobal && scopes.peek().contains(stmt.name.lexeme)) {
+            context.resolvingError(stmt.name.line, stmt.name.lexeme, "Cannot re-declare the same identifier in the same local scope");
             return null;
         }
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
-        define(stmt.name);
+        define(stmt.name, stmt);
         return null;
     }
 
@@ -348,6 +579,19 @@ public class LoxResolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
     public Void visitWhileStmt(Stmt.While stmt) {
         resolve(stmt.condition);
         resolve(stmt.body);
+        Stmt.Block candidate = null;
+        if (stmt.body instanceof Stmt.Block block) {
+            if (block.scoped) {
+                candidate = block;
+            } else if (!block.statements.isEmpty() && block.statements.getFirst() instanceof Stmt.Block first && first.scoped) {
+                candidate = first;
+            }
+        }
+        // 其中的函数是否会保存环境，要到 flatten 时才能确定
+        stmt.reused = candidate;
+        if (candidate != null) {
+            loops.add(stmt);
+        }
         return null;
     }
 
@@ -363,7 +607,7 @@ public class LoxResolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
             } else if (expr instanceof Expr.TupleExpr) {
                 resolve(expr);
             } else {
-                Lox.resolvingError(-1, "tuple", "not valid variable to declare");
+                context.resolvingError(-1, "tuple", "not valid variable to declare");
             }
         }
     }
@@ -379,11 +623,41 @@ public class LoxResolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
         return null;
     }
 
+    private void checkParallelWrite(Expr.TupleExpr tupleExpr) {
+        for (Expr expr : tupleExpr.exprList) {
+            if (expr instanceof Expr.Variable variable) {
+                checkParallelWrite(variable.name);
+            } else if (expr instanceof Expr.TupleExpr tuple) {
+                checkParallelWrite(tuple);
+            }
+        }
+    }
+
+    /**
+     * 循环变量位于一层新的 scope 中，运行时每个元素都对应这样一层环境。循环体中不能使用 return，
+     * 因为它的每一次执行都可能位于另外的线程上，没有可以返回的函数
+     */
+    @Override
+    public Void visitParallelWithStmt(Stmt.ParallelWith stmt) {
+        resolve(stmt.iterable);
+        int oldScope = parallelScope;
+        FunctionType oldType = functionType;
+        beginScope();
+        define(stmt.name);
+        parallelScope = scopes.size() - 1;
+        functionType = FunctionType.Parallel;
+        resolve(stmt.body);
+        functionType = oldType;
+        parallelScope = oldScope;
+        endScope();
+        return null;
+    }
+
     @Override
     public Void visitImportStmt(Stmt.Import stmt) {
         String moduleName = stmt.path.literal.toString();
         if (stmt.path.literal.toString().contains(".")) {
-            Lox.resolvingError(stmt.path.line, moduleName, "The module should not contain dot");
+            context.resolvingError(stmt.path.line, moduleName, "The module should not contain dot");
         }
         if (stmt.items.isEmpty()) {
             if (stmt.moduleAlias != null) {
@@ -404,10 +678,68 @@ public class LoxResolver implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
         return null;
     }
 
+    /**
+     * 一层 scope
+     */
+    private static final class Scope {
+        // 申明的名字 -> 申明它的节点：Stmt.Var、Stmt.Function、Stmt.Class 或者 Param，它们被扁平的闭包捕获时可以定义为 Environment.Cell。
+        // 其他的名字（this、super、方法名等）的值为 null
+        final HashMap<String, Object> names = new HashMap<>();
+        Closure function; // 这一层是候选函数的参数层时，为这个函数
+
+        boolean contains(String name) {
+            return names.containsKey(name);
+        }
+    }
+
+    /**
+     * 函数的第 index 个参数
+     */
+    private record Param(Stmt.Function function, int index) {
+    }
+
+    /**
+     * @param declaration 自由变量的申明
+     * @param scope 它所在的 scope 的下标
+     */
+    private record Upvalue(Object declaration, int scope) {
+    }
+
+    /**
+     * 跨过了候选函数的引用
+     * @param scope 引用所在的 scope 的下标
+     * @param declared 名字所在的 scope 的下标
+     * @param closure 引用处最内层的候选函数
+     */
+    private record Reference(Expr expr, int scope, int declared, Closure closure) {
+    }
+
+    /**
+     * 一个可以成为扁平的闭包的函数，以及 resolve 它的函数体时收集到的信息
+     */
+    private static final class Closure {
+        final Stmt.Function declaration;
+        final Closure enclosing; // 外层最近的候选函数
+        final int scope; // 参数层的下标
+        final List<Scope> outer; // 下标 1 到 scope - 1 的各层，扁平化之后运行时会跳过它们
+        final LinkedHashMap<String, Upvalue> upvalues = new LinkedHashMap<>(); // 函数（包括其中的函数）从外层引用到的局部变量
+        final HashSet<String> dynamicNames = new HashSet<>(); // 函数（包括其中的函数）中留给运行时查找的名字
+        boolean blocked; // 捕获了不能定义为 cell 的名字
+        boolean flat;
+
+        Closure(Stmt.Function declaration, Closure enclosing, int scope, List<Scope> outer) {
+            this.declaration = declaration;
+            this.enclosing = enclosing;
+            this.scope = scope;
+            this.outer = outer;
+        }
+    }
+
     private enum FunctionType {
         None,
         Function,
         Initializer,
+        Parallel,
     }
 
     private enum ClassType {
@@ -3,6 +3,9 @@ public class LoxRuntimeError extends RuntimeException{
     LoxRuntimeError(Token token, String message) {
         super(message);
         this.token = token;
+        if (LoxEvents.RUNTIME_ERROR.isEnabled() && getClass() != LoxReturn.class) {
+            LoxEvents.runtimeError(message, token);
+        }
     }
 
     static class LoxReturn extends  LoxRuntimeError {
@@ -13,4 +16,18 @@ public class LoxRuntimeError extends RuntimeException{
             this.value = value;
         }
     }
+
+    /**
+     * 超出了 {@link LoxLimits} 中的某个限制
+     */
+    static class LimitExceeded extends LoxRuntimeError {
+        private static final long serialVersionUID = 1L;
+
+        final String limit; // steps、timeout 或 memory
+
+        LimitExceeded(String limit, String message) {
+            super(null, message);
+            this.limit = limit;
+        }
+    }
 }
@@ -1,57 +1,156 @@
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.List;
 
+/**
+ * <p>扫描器直接工作在 {@link CharSequence}（比如映射到内存的文件的字节，见 {@link LoxMappedSource}）之上，每个 token 记录它在源码中的位置和长度。</p>
+ * 只有标识符和字面量才会生成新的字符串，其中标识符经过 {@link #intern(int, int)}，同名的标识符共享同一个 String 对象。
+ * 符号和关键字的 lexeme 是固定的常量，关键字本身用 {@link #identifierType()} 中的 switch 识别，不需要先生成候选字符串。
+ */
 public class LoxScanner {
 
-    private static final HashMap<String, TokenType> typeMap;
+    /**
+     * 符号和关键字的 lexeme，以 TokenType 的 ordinal 为下标。对于其他 token，为 null
+     */
+    private static final String[] fixedLexemes = new String[TokenType.values().length];
 
     static {
-        typeMap = new HashMap<>();
-        typeMap.put("and", TokenType.AND);
-        typeMap.put("class", TokenType.CLASS);
-        typeMap.put("else", TokenType.ELSE);
-        typeMap.put("false", TokenType.FALSE);
-        typeMap.put("for", TokenType.FOR);
-        typeMap.put("fun", TokenType.FUN);
-        typeMap.put("if", TokenType.IF);
-        typeMap.put("nil", TokenType.NIL);
-        typeMap.put("or", TokenType.OR);
-        typeMap.put("print", TokenType.PRINT);
-        typeMap.put("return", TokenType.RETURN);
-        typeMap.put("super", TokenType.SUPER);
-        typeMap.put("this", TokenType.THIS);
-        typeMap.put("true", TokenType.TRUE);
-        typeMap.put("var", TokenType.VAR);
-        typeMap.put("while", TokenType.WHILE);
-        typeMap.put("static", TokenType.STATIC);
-        typeMap.put("import", TokenType.IMPORT);
-        typeMap.put("native", TokenType.NATIVE);
-        typeMap.put("in", TokenType.IN);
-        typeMap.put("with", TokenType.WITH);
-        typeMap.put("public", TokenType.PUBLIC);
-        typeMap.put("as", TokenType.AS);
+        EnumMap<TokenType, String> lexemes = new EnumMap<>(TokenType.class);
+        lexemes.put(TokenType.LEFT_PAREN, "(");
+        lexemes.put(TokenType.RIGHT_PAREN, ")");
+        lexemes.put(TokenType.LEFT_BRACE, "{");
+        lexemes.put(TokenType.RIGHT_BRACE, "}");
+        lexemes.put(TokenType.LEFT_BRACKET, "[");
+        lexemes.put(TokenType.RIGHT_BRACKET, "]");
+        lexemes.put(TokenType.COMMA, ",");
+        lexemes.put(TokenType.DOT, ".");
+        lexemes.put(TokenType.MINUS, "-");
+        lexemes.put(TokenType.PLUS, "+");
+        lexemes.put(TokenType.SEMICOLON, ";");
+        lexemes.put(TokenType.SLASH, "/");
+        lexemes.put(TokenType.STAR, "*");
+        lexemes.put(TokenType.COLON, ":");
+        lexemes.put(TokenType.MINUS_EQUAL, "-=");
+        lexemes.put(TokenType.PLUS_EQUAL, "+=");
+        lexemes.put(TokenType.STAR_EQUAL, "*=");
+        lexemes.put(TokenType.SLASH_EQUAL, "/=");
+        lexemes.put(TokenType.PLUS_PLUS, "++");
+        lexemes.put(TokenType.MINUS_MINUS, "--");
+        lexemes.put(TokenType.BANG, "!");
+        lexemes.put(TokenType.BANG_EQUAL, "!=");
+        lexemes.put(TokenType.EQUAL, "=");
+        lexemes.put(TokenType.EQUAL_EQUAL, "==");
+        lexemes.put(TokenType.GREATER, ">");
+        lexemes.put(TokenType.GREATER_EQUAL, ">=");
+        lexemes.put(TokenType.LESS, "<");
+        lexemes.put(TokenType.LESS_EQUAL, "<=");
+        lexemes.put(TokenType.AND, "and");
+        lexemes.put(TokenType.CLASS, "class");
+        lexemes.put(TokenType.ELSE, "else");
+        lexemes.put(TokenType.FALSE, "false");
+        lexemes.put(TokenType.FUN, "fun");
+        lexemes.put(TokenType.FOR, "for");
+        lexemes.put(TokenType.IF, "if");
+        lexemes.put(TokenType.NIL, "nil");
+        lexemes.put(TokenType.OR, "or");
+        lexemes.put(TokenType.IN, "in");
+        lexemes.put(TokenType.WITH, "with");
+        lexemes.put(TokenType.AS, "as");
+        lexemes.put(TokenType.PRINT, "print");
+        lexemes.put(TokenType.RETURN, "return");
+        lexemes.put(TokenType.SUPER, "super");
+        lexemes.put(TokenType.THIS, "this");
+        lexemes.put(TokenType.TRUE, "true");
+        lexemes.put(TokenType.VAR, "var");
+        lexemes.put(TokenType.WHILE, "while");
+        lexemes.put(TokenType.STATIC, "static");
+        lexemes.put(TokenType.IMPORT, "import");
+        lexemes.put(TokenType.NATIVE, "native");
+        lexemes.put(TokenType.PUBLIC, "public");
+        lexemes.put(TokenType.YIELD, "yield");
+        lexemes.forEach((type, lexeme) -> fixedLexemes[type.ordinal()] = lexeme);
     }
 
-    private final String source;
+    private final CharSequence source;
+    private final int sourceLength;
     private int start;
     private int current;
-    private int line = 1;
-    private final ArrayList<Token> tokenList = new ArrayList<>();
+    private int line;
+    private boolean acceptUnterminated = false; // 为 true 时，未结束的字符串和注释不是错误，而是通过 isUnterminated 告知调用者。用于 repl
+    private boolean unterminated = false;
+    private Token scanned; // scanToken 刚刚识别出的 token。空白和注释不会产生 token
+    private LoxContext context = LoxContext.detached(); // 错误报告给它
+
+    private String[] internTable = new String[256]; // 开放寻址的哈希表，容量总是 2 的幂
+    private int internCount = 0;
 
-    public LoxScanner(String source) {
+    public LoxScanner(CharSequence source) {
+        this(source, 1);
+    }
+
+    /**
+     * @param firstLine 源码第一行的行号
+     */
+    public LoxScanner(CharSequence source, int firstLine) {
         this.source = source;
+        this.sourceLength = source.length();
+        this.line = firstLine;
+    }
+
+    /**
+     * 让扫描器把源码末尾未结束的字符串或者注释视为“尚未输入完”，而不是错误。repl 会把这样的输入和下一行合并后重新扫描
+     */
+    public LoxScanner acceptUnterminated() {
+        this.acceptUnterminated = true;
+        return this;
+    }
+
+    /**
+     * 把扫描错误报告给 context。默认报告给一个独立的 context，只输出错误，不影响任何正在运行的代码
+     */
+    public LoxScanner reportTo(LoxContext context) {
+        this.context = context;
+        return this;
+    }
+
+    LoxContext getContext() {
+        return context;
+    }
+
+    /**
+     * @return 源码是否结束在一个未结束的字符串或者注释之中。只有在 {@link #acceptUnterminated()} 之后才有意义
+     */
+    public boolean isUnterminated() {
+        return unterminated;
     }
 
     public List<Token> scanTokens() {
-        while (!isEnd()) {
-            nextToken();
-        }
-        tokenList.add(new Token(TokenType.EOF, "", null, line));
+        ArrayList<Token> tokenList = new ArrayList<>();
+        Token token;
+        do {
+            token = nextToken();
+            tokenList.add(token);
+        } while (token.type != TokenType.EOF);
         return tokenList;
     }
 
-    private void nextToken() {
+    /**
+     * 按需扫描出下一个 token，用于流式地解析。源码结束后，每次调用都返回 EOF
+     *
+     * @return 下一个 token
+     */
+    public Token nextToken() {
+        scanned = null;
+        while (scanned == null) {
+            if (isEnd()) {
+                return new Token(TokenType.EOF, "", null, line, current, 0);
+            }
+            scanToken();
+        }
+        return scanned;
+    }
+
+    private void scanToken() {
         start = current;
         char next = advance();
         switch (next) {
@@ -151,7 +250,11 @@ public class LoxScanner {
                 } else if (isAlpha(next)) {
                     identifier();
                 } else {
-                    Lox.scanningError(line, String.valueOf(next), "Unexpected character");
+                    // 连续的非 ASCII 字符作为一个错误报告。扫描 LoxMappedSource 时，这样一个多字节字符只报告一次，并且以解码后的形式显示
+                    while (next > 127 && peek() > 127) {
+                        current++;
+                    }
+                    context.scanningError(line, text(start, current), "Unexpected character");
                     break;
                 }
         }
@@ -161,12 +264,146 @@ public class LoxScanner {
         while (isAlphaNumeric(peek())) {
             current++;
         }
-        String token = source.substring(start, current);
-        TokenType type = typeMap.get(token);
-        if (type == null) {
-            type = TokenType.IDENTIFIER;
+        TokenType type = identifierType();
+        if (type == TokenType.IDENTIFIER) {
+            scanned = new Token(type, intern(start, current), null, line, start, current - start);
+        } else {
+            addToken(type);
         }
-        addToken(type);
+    }
+
+    /**
+     * 判断 [start, current) 是关键字还是普通的标识符。先按首字母分支，再逐个字符比较，整个过程不会生成字符串
+     */
+    private TokenType identifierType() {
+        switch (source.charAt(start)) {
+            case 'a':
+                if (isKeyword("and")) return TokenType.AND;
+                if (isKeyword("as")) return TokenType.AS;
+                break;
+            case 'c':
+                if (isKeyword("class")) return TokenType.CLASS;
+                break;
+            case 'e':
+                if (isKeyword("else")) return TokenType.ELSE;
+                break;
+            case 'f':
+                if (isKeyword("false")) return TokenType.FALSE;
+                if (isKeyword("for")) return TokenType.FOR;
+                if (isKeyword("fun")) return TokenType.FUN;
+                break;
+            case 'i':
+                if (isKeyword("if")) return TokenType.IF;
+                if (isKeyword("in")) return TokenType.IN;
+                if (isKeyword("import")) return TokenType.IMPORT;
+                break;
+            case 'n':
+                if (isKeyword("nil")) return TokenType.NIL;
+                if (isKeyword("native")) return TokenType.NATIVE;
+                break;
+            case 'o':
+                if (isKeyword("or")) return TokenType.OR;
+                break;
+            case 'p':
+                if (isKeyword("print")) return TokenType.PRINT;
+                if (isKeyword("public")) return TokenType.PUBLIC;
+                break;
+            case 'r':
+                if (isKeyword("return")) return TokenType.RETURN;
+                break;
+            case 's':
+                if (isKeyword("super")) return TokenType.SUPER;
+                if (isKeyword("static")) return TokenType.STATIC;
+                break;
+            case 't':
+                if (isKeyword("this")) return TokenType.THIS;
+                if (isKeyword("true")) return TokenType.TRUE;
+                break;
+            case 'v':
+                if (isKeyword("var")) return TokenType.VAR;
+                break;
+            case 'w':
+                if (isKeyword("while")) return TokenType.WHILE;
+                if (isKeyword("with")) return TokenType.WITH;
+                break;
+            case 'y':
+                if (isKeyword("yield")) return TokenType.YIELD;
+                break;
+        }
+        return TokenType.IDENTIFIER;
+    }
+
+    private boolean isKeyword(String keyword) {
+        if (current - start != keyword.length()) {
+            return false;
+        }
+        for (int i = 1; i < keyword.length(); i++) {
+            if (source.charAt(start + i) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 返回与源码 [from, to) 内容相同的字符串。同样内容的字符串只会生成一次：之后的查找只计算哈希并逐字符比较，不会分配内存。
+     * 哈希的计算方式和 {@link String#hashCode()} 一致，因此可以直接和表中字符串缓存的哈希比较。
+     */
+    private String intern(int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        int mask = internTable.length - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        while (true) {
+            String candidate = internTable[index];
+            if (candidate == null) {
+                String s = text(from, to).intern();
+                internTable[index] = s;
+                if (++internCount * 2 > internTable.length) {
+                    growInternTable();
+                }
+                return s;
+            }
+            if (candidate.hashCode() == hash && regionEquals(candidate, from, to)) {
+                return candidate;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private boolean regionEquals(String s, int from, int to) {
+        if (s.length() != to - from) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) != source.charAt(from + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void growInternTable() {
+        String[] old = internTable;
+        internTable = new String[old.length * 2];
+        int mask = internTable.length - 1;
+        for (String s : old) {
+            if (s == null) {
+                continue;
+            }
+            int hash = s.hashCode();
+            int index = (hash ^ (hash >>> 16)) & mask;
+            while (internTable[index] != null) {
+                index = (index + 1) & mask;
+            }
+            internTable[index] = s;
+        }
+    }
+
+    private String text(int from, int to) {
+        return source.subSequence(from, to).toString();
     }
 
     private void stringLiteral() {
@@ -179,14 +416,18 @@ public class LoxScanner {
         }
         // 如果是因為源代碼結束，那麼說明我們沒有遇到右引號
         if (isEnd()) {
-            Lox.scanningError(line,null, "Unterminated string");
+            if (acceptUnterminated) {
+                unterminated = true;
+            } else {
+                context.scanningError(line,null, "Unterminated string");
+            }
             return;
         }
 
         //  否則，我們遇到了右引號
         current++;
 //        System.out.println("the string literal is " + source.substring(start + 1, current -1));
-        addToken(TokenType.STRING, source.substring(start + 1, current - 1));
+        addToken(TokenType.STRING, text(start + 1, current - 1));
     }
 
     private void numberLiteral() {
@@ -200,9 +441,13 @@ public class LoxScanner {
 
             while (isDigit(peek()))
                 advance();
+        } else if (current - start <= 18) {
+            // 没有小数部分的字面量是整数，见 Interpreter#isNumber。更长的可能超出 long 的范围，依然作为 double
+            addToken(TokenType.NUMBER, Long.parseLong(text(start, current)));
+            return;
         }
 
-        addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(TokenType.NUMBER, Double.parseDouble(text(start, current)));
     }
 
     private void specialComment() {
@@ -215,7 +460,11 @@ public class LoxScanner {
         }
         // if eof
         if (isEnd()) {
-            Lox.scanningError(line, null,"special comment not terminated");
+            if (acceptUnterminated) {
+                unterminated = true;
+            } else {
+                context.scanningError(line, null,"special comment not terminated");
+            }
             return;
         }
         current += 2;
@@ -260,7 +509,7 @@ public class LoxScanner {
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length())
+        if (current + 1 >= sourceLength)
             return '\0';
         return source.charAt(current + 1);
     }
@@ -269,10 +518,15 @@ public class LoxScanner {
         addToken(type, null);
     }
 
+    /**
+     * 符号和关键字使用固定的 lexeme，只有字面量才会从源码中截取
+     */
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        Token token = new Token(type, text, literal, line);
-        tokenList.add(token);
+        String text = fixedLexemes[type.ordinal()];
+        if (text == null) {
+            text = text(start, current);
+        }
+        scanned = new Token(type, text, literal, line, start, current - start);
     }
 
     private static boolean isDigit(char ch) {
@@ -290,7 +544,7 @@ public class LoxScanner {
     }
 
     private boolean isEnd() {
-        return current >= source.length();
+        return current >= sourceLength;
     }
 
 }
@@ -0,0 +1,312 @@
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>JSR-223 的 {@link ScriptEngine}。通过 {@code new ScriptEngineManager().getEngineByName("lox")} 获得。</p>
+ * engine 创建时执行一次标准库，得到一个根 context，它只持有全局环境、内建类和已导入的模块，本身不执行代码。
+ * 每个使用 engine 的线程各有一个从它创建的 {@link LoxContext}（见 {@link LoxContext#LoxContext(LoxContext)}），
+ * 其中是这个线程自己的输出、执行限制和错误状态；全局环境、内建类和模块则是所有线程共享的。
+ * 因此一个线程上定义的函数、类和对象（比如写回 bindings 的函数）可以在任何线程上调用，它们看到的 Array 等内建类是同一个。
+ * {@link #compile} 只进行一次 scan、parse、resolve，得到的 {@link Compiled} 只保存 resolve 之后的语句，这些语句不再改变，
+ * 可以在不同的 {@link Bindings} 上、在不同的线程上同时反复执行，每次执行使用当前线程的 context，不再有任何解析的开销。
+ * <p>每次执行都在一个新的、以全局环境为外层的环境中进行：执行之前把 bindings（先 global scope，再 engine scope）中的值定义在其中，
+ * 执行之后把脚本定义的顶层变量、函数和类写回 engine scope 的 bindings。因此同一个 engine 上先后执行的脚本可以通过 bindings 互相看到，
+ * 而使用不同 bindings 的执行之间互不影响。{@link #invokeFunction} 从 engine scope 的 bindings 中查找函数。
+ * <p>print 的输出写到 {@link ScriptContext#getWriter()}。错误不会输出，而是以 {@link ScriptException} 的形式抛出。
+ * java 的数字会被转换为 lox 的数字（整数为 long，其他为 double），见 {@link #toLox}。
+ * <p>同时在多个线程上执行时，每次执行应当使用自己的 bindings（{@code script.eval(bindings)}），
+ * 因为脚本定义的变量会被写回 engine scope 的 bindings，而 engine 默认的 bindings 没有同步。
+ * 同时执行的代码之间的线程安全与 spawn 的任务相同：lox 的对象和数组没有同步。
+ */
+public final class LoxScriptEngine extends AbstractScriptEngine implements Compilable, Invocable {
+
+    private final LoxScriptEngineFactory factory;
+    private final LoxContext root = newContext(); // 各个线程的 context 共享它的全局环境、内建类和模块
+    private final ThreadLocal<LoxContext> contexts = ThreadLocal.withInitial(() -> new LoxContext(root));
+    private final LoxLimits limits = new LoxLimits(); // 只保存限制的设置，每次执行之前复制到当前线程的 context 中
+
+    LoxScriptEngine(LoxScriptEngineFactory factory) {
+        this.factory = factory;
+    }
+
+    private static LoxContext newContext() {
+        LoxContext context = new LoxContext();
+        context.warnings = false;
+        return context;
+    }
+
+    /**
+     * 一段编译好的脚本，只包含 resolve 之后的语句，不依赖于任何 bindings，也不依赖于任何线程的 context
+     */
+    static class Compiled extends CompiledScript {
+        private final LoxScriptEngine engine;
+        private final List<Stmt> statements;
+
+        Compiled(LoxScriptEngine engine, List<Stmt> statements) {
+            this.engine = engine;
+            this.statements = statements;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            return engine.execute(statements, context);
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return engine;
+        }
+    }
+
+    @Override
+    public Compiled compile(String script) throws ScriptException {
+        LoxContext context = contexts.get();
+        List<String> errors = new ArrayList<>();
+        LoxContext.errorCollector.set(errors);
+        List<Stmt> statements;
+        try {
+            List<Token> tokens = new LoxScanner(script).reportTo(context).scanTokens();
+            statements = new LoxParser(tokens).reportTo(context).parse();
+            if (errors.isEmpty()) {
+                // 不预读导入的模块：编译好的脚本可能在别的线程上执行，预读的结果会一直留在这个线程的 context 中
+                new LoxResolver(context.interpreter).resolve(statements);
+            }
+        } finally {
+            LoxContext.errorCollector.remove();
+        }
+        if (!errors.isEmpty()) {
+            throw new ScriptException(String.join("\n", errors));
+        }
+        return new Compiled(this, statements);
+    }
+
+    @Override
+    public Compiled compile(Reader script) throws ScriptException {
+        return compile(read(script));
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return compile(script).eval(context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(read(reader), context);
+    }
+
+    /**
+     * @return 最后一个语句的值：如果它是表达式语句，为表达式的值，否则为 null
+     */
+    private Object execute(List<Stmt> statements, ScriptContext scriptContext) throws ScriptException {
+        LoxContext context = contexts.get();
+        Environment env = new Environment(context.interpreter.global);
+        Bindings global = scriptContext.getBindings(ScriptContext.GLOBAL_SCOPE);
+        Bindings engine = scriptContext.getBindings(ScriptContext.ENGINE_SCOPE);
+        defineBindings(env, global);
+        defineBindings(env, engine);
+        Map<String, Object> defined = new HashMap<>(env.values);
+        context.out.redirect(scriptContext.getWriter());
+        context.limits.copySettings(limits);
+        context.limits.start(context.interpreter);
+        try {
+            return context.interpreter.evalWithEnvironment(statements, env);
+        } catch (LoxRuntimeError e) {
+            throw scriptException(e);
+        } finally {
+            context.out.redirect(null);
+            if (engine != null) {
+                // 只写回脚本定义或者修改过的变量，未改变的 java 值保持原样，不会被替换为转换后的 lox 值
+                for (Map.Entry<String, Object> entry : env.values.entrySet()) {
+                    if (!defined.containsKey(entry.getKey()) || defined.get(entry.getKey()) != entry.getValue()) {
+                        engine.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    private void defineBindings(Environment env, Bindings bindings) {
+        if (bindings == null) {
+            return;
+        }
+        for (Map.Entry<String, Object> entry : bindings.entrySet()) {
+            // javax.script.filename 之类的键不是合法的标识符，lox 代码也无法引用它们
+            if (!entry.getKey().contains(".")) {
+                env.define(entry.getKey(), toLox(entry.getValue()));
+            }
+        }
+    }
+
+    @Override
+    public Object invokeFunction(String name, Object... args) throws ScriptException, NoSuchMethodException {
+        Object function = getBindings(ScriptContext.ENGINE_SCOPE).get(name);
+        if (function == null && root.interpreter.global.values.containsKey(name)) {
+            function = root.interpreter.global.values.get(name);
+        }
+        if (!(function instanceof LoxCallable callable)) {
+            throw new NoSuchMethodException(name);
+        }
+        return call(callable, args);
+    }
+
+    @Override
+    public Object invokeMethod(Object thiz, String name, Object... args) throws ScriptException, NoSuchMethodException {
+        if (!(thiz instanceof LoxInstance instance) || !instance.contains(name)
+                || !(instance.get(name) instanceof LoxCallable method)) {
+            throw new NoSuchMethodException(name);
+        }
+        return call(method, args);
+    }
+
+    private Object call(LoxCallable callable, Object[] args) throws ScriptException {
+        List<Object> arguments = new ArrayList<>();
+        if (args != null) {
+            for (Object arg : args) {
+                arguments.add(toLox(arg));
+            }
+        }
+        if (callable.arity() != arguments.size()) {
+            throw new ScriptException("the callable %s expects %d arguments, but got %d"
+                    .formatted(Interpreter.stringify(callable), callable.arity(), arguments.size()));
+        }
+        LoxContext context = contexts.get();
+        context.out.redirect(getContext().getWriter());
+        context.limits.copySettings(limits);
+        context.limits.start(context.interpreter);
+        try {
+            return callable.call(context.interpreter, arguments);
+        } catch (LoxRuntimeError e) {
+            throw scriptException(e);
+        } finally {
+            context.out.redirect(null);
+        }
+    }
+
+    @Override
+    public <T> T getInterface(Class<T> clasz) {
+        return proxy(clasz, null);
+    }
+
+    @Override
+    public <T> T getInterface(Object thiz, Class<T> clasz) {
+        if (!(thiz instanceof LoxInstance)) {
+            throw new IllegalArgumentException("not a lox object: " + thiz);
+        }
+        return proxy(clasz, thiz);
+    }
+
+    /**
+     * 接口中的每个方法都对应一个同名的 lox 函数（thiz 为 null 时）或者 thiz 的同名方法。有任何一个不存在时返回 null
+     */
+    private <T> T proxy(Class<T> clasz, Object thiz) {
+        if (clasz == null || !clasz.isInterface()) {
+            throw new IllegalArgumentException("not an interface: " + clasz);
+        }
+        for (Method method : clasz.getMethods()) {
+            boolean found = thiz == null
+                    ? getBindings(ScriptContext.ENGINE_SCOPE).get(method.getName()) instanceof LoxCallable
+                    || root.interpreter.global.values.get(method.getName()) instanceof LoxCallable
+                    : ((LoxInstance) thiz).contains(method.getName());
+            if (!found) {
+                return null;
+            }
+        }
+        Object handler = Proxy.newProxyInstance(clasz.getClassLoader(), new Class<?>[]{clasz}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> "<lox proxy: %s>".formatted(clasz.getName());
+                };
+            }
+            return thiz == null ? invokeFunction(method.getName(), args) : invokeMethod(thiz, method.getName(), args);
+        });
+        return clasz.cast(handler);
+    }
+
+    /**
+     * @return 这个 engine 的执行限制，作用于之后每一次 eval 和 invokeFunction/invokeMethod，在各个线程上分别计算。超出时抛出 ScriptException
+     */
+    public LoxLimits getLimits() {
+        return limits;
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    /**
+     * java 的整数转换为 long，其他数字转换为 double，字符转换为字符串，java 的数组和 List 转换为 lox 的数组，其他值原样传递
+     */
+    private Object toLox(Object value) {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Number number && !(value instanceof Double) && !(value instanceof Long)) {
+            return number.doubleValue();
+        }
+        if (value instanceof Character c) {
+            return String.valueOf(c);
+        }
+        if (value instanceof Object[] array) {
+            return toLoxArray(Arrays.asList(array));
+        }
+        if (value instanceof List<?> list) {
+            return toLoxArray(list);
+        }
+        return value;
+    }
+
+    private LoxArray toLoxArray(List<?> items) {
+        List<Object> values = new ArrayList<>(items.size());
+        for (Object item : items) {
+            values.add(toLox(item));
+        }
+        return new LoxArray(root.interpreter.arrayClass, values);
+    }
+
+    private static ScriptException scriptException(LoxRuntimeError e) {
+        if (e.token == null) {
+            return new ScriptException(e.getMessage());
+        }
+        return new ScriptException("%s: \"%s\"".formatted(e.getMessage(), e.token.lexeme), null, e.token.line);
+    }
+
+    private static String read(Reader reader) throws ScriptException {
+        StringBuilder sb = new StringBuilder();
+        char[] chars = new char[1024];
+        int len;
+        try {
+            while ((len = reader.read(chars)) != -1) {
+                sb.append(chars, 0, len);
+            }
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        }
+        return sb.toString();
+    }
+}
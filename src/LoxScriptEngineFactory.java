@@ -0,0 +1,82 @@
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import java.util.List;
+
+/**
+ * {@link LoxScriptEngine} 的工厂，通过 META-INF/services 注册，名字为 lox 或 jlox
+ */
+public class LoxScriptEngineFactory implements ScriptEngineFactory {
+
+    @Override
+    public String getEngineName() {
+        return "jlox";
+    }
+
+    @Override
+    public String getEngineVersion() {
+        return "1.0";
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return List.of("lox");
+    }
+
+    @Override
+    public List<String> getMimeTypes() {
+        return List.of("application/x-lox");
+    }
+
+    @Override
+    public List<String> getNames() {
+        return List.of("lox", "jlox");
+    }
+
+    @Override
+    public String getLanguageName() {
+        return "lox";
+    }
+
+    @Override
+    public String getLanguageVersion() {
+        return "1.0";
+    }
+
+    @Override
+    public Object getParameter(String key) {
+        return switch (key) {
+            case ScriptEngine.ENGINE -> getEngineName();
+            case ScriptEngine.ENGINE_VERSION -> getEngineVersion();
+            case ScriptEngine.NAME -> getNames().getFirst();
+            case ScriptEngine.LANGUAGE -> getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION -> getLanguageVersion();
+            // 每个线程使用自己的 context，同一段编译好的脚本可以同时在多个线程上执行，见 LoxScriptEngine
+            case "THREADING" -> "MULTITHREADED";
+            default -> null;
+        };
+    }
+
+    @Override
+    public String getMethodCallSyntax(String obj, String m, String... args) {
+        return "%s.%s(%s)".formatted(obj, m, String.join(", ", args));
+    }
+
+    @Override
+    public String getOutputStatement(String toDisplay) {
+        return "print \"%s\";".formatted(toDisplay);
+    }
+
+    @Override
+    public String getProgram(String... statements) {
+        StringBuilder sb = new StringBuilder();
+        for (String statement : statements) {
+            sb.append(statement).append(";\n");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new LoxScriptEngine(this);
+    }
+}
@@ -0,0 +1,382 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>惰性的序列：{@code seq(iterable)} 的返回值。</p>
+ * map、filter、take、skip、zip、flatMap 不会执行任何东西，只是返回一个多了一个阶段的新序列。
+ * 只有 collect、reduce、forEach 或者遍历（{@code with x in s}）时，才从最后一个阶段开始逐个地拉取元素：
+ * 每个元素依次经过所有的阶段，阶段之间只是 java 的方法调用，不会产生中间的数组或 List。
+ * <p>数据源可以是 with 语句接受的任何对象：Array、range、List 直接读取其中的元素，生成器和其他具有 iter 函数的对象按照
+ * iter/hasNext/next 协议读取；此外，字符串被视为由单个字符组成的序列。序列本身不保存元素，每次执行都会重新打开数据源，
+ * 因此只要数据源可以被多次遍历（生成器不行），同一个序列也可以被多次执行。
+ * <p>lox 代码可见的方法：
+ * <ul>
+ *     <li>{@code map(fn)}、{@code filter(fn)}、{@code flatMap(fn)}：flatMap 的 fn 返回一个可以作为数据源的对象，其中的元素被依次展开</li>
+ *     <li>{@code take(n)}、{@code skip(n)}：只取前 n 个元素，或者跳过前 n 个元素。take 在取够之后不再拉取上游</li>
+ *     <li>{@code zip(other)}：与另一个数据源按位置配对，元素为 {@code (a, b)}，较短的一方结束时结束</li>
+ *     <li>{@code collect()}：把所有元素收集到一个数组中</li>
+ *     <li>{@code reduce(fn, initial)}、{@code forEach(fn)}：不经过数组，直接消费所有元素</li>
+ *     <li>{@code iter()}：因此序列可以直接用在 with 语句中</li>
+ * </ul>
+ */
+public class LoxSeq extends LoxInstance {
+
+    private static final Object END = new Object(); // Source 没有更多元素时返回它。lox 的值不会是这个对象
+    private static final Object NONE = new Object(); // 迭代器没有预先拉取的元素。不能用 null，它是 lox 的 nil
+
+    /**
+     * 一个正在执行的阶段。每次调用返回下一个元素，没有更多元素时返回 {@link #END}
+     */
+    interface Source {
+        Object next();
+    }
+
+    /**
+     * 一个阶段的描述。执行时在执行它的 interpreter 上打开，得到一个 {@link Source}
+     */
+    interface Stage {
+        Source open(Interpreter interpreter);
+    }
+
+    private final Stage stage;
+
+    private LoxSeq(Stage stage) {
+        super((LoxClass) null);
+        this.stage = stage;
+        defineMethods();
+    }
+
+    static LoxSeq of(Interpreter interpreter, Object iterable) {
+        if (iterable instanceof LoxSeq seq) {
+            return seq;
+        }
+        return new LoxSeq(source(interpreter, iterable));
+    }
+
+    /**
+     * 判断数据源的种类是在创建序列时进行的，执行时只需要读取
+     */
+    private static Stage source(Interpreter interpreter, Object iterable) {
+        if (iterable instanceof LoxSeq seq) {
+            return seq.stage;
+        }
+        if (iterable instanceof LoxArray array) {
+            return worker -> indexed(array.getLength(), array::getAtIndex);
+        }
+        if (iterable instanceof String s) {
+            return worker -> indexed(s.length(), i -> String.valueOf(s.charAt(i)));
+        }
+        if (iterable instanceof LoxInstance instance && instance.getLoxClass() == interpreter.rangeClass
+                && Interpreter.isNumber(instance.get("limit"))) {
+            return worker -> {
+                double limit = Interpreter.toDouble(instance.get("limit"));
+                return new Source() {
+                    long i = 0;
+
+                    @Override
+                    public Object next() {
+                        return i < limit ? i++ : END;
+                    }
+                };
+            };
+        }
+        if (iterable instanceof LoxInstance instance && instance.getLoxClass() == interpreter.listClass) {
+            return worker -> {
+                if (instance.get("backing") instanceof LoxArray backing && Interpreter.isNumber(instance.get("size"))) {
+                    return indexed((int) Interpreter.toDouble(instance.get("size")), backing::getAtIndex);
+                }
+                throw new LoxRuntimeError(null, "seq: the List is corrupted");
+            };
+        }
+        if (iterable instanceof LoxInstance instance && instance.contains("iter")
+                && instance.get("iter") instanceof LoxCallable iterFun) {
+            return worker -> {
+                if (!(iterFun.call(worker, List.of()) instanceof LoxInstance iter)
+                        || !(iter.get("hasNext") instanceof LoxCallable hasNext)
+                        || !(iter.get("next") instanceof LoxCallable next)) {
+                    throw new LoxRuntimeError(null, "seq: iter() should return an object with hasNext() and next()");
+                }
+                return () -> Interpreter.isTrue(hasNext.call(worker, List.of())) ? next.call(worker, List.of()) : END;
+            };
+        }
+        throw new LoxRuntimeError(null, "seq needs an Array, a String, a range, a List or an object with iter(), but got "
+                + Interpreter.stringify(iterable));
+    }
+
+    private interface Indexed {
+        Object get(int index);
+    }
+
+    private static Source indexed(int length, Indexed items) {
+        return new Source() {
+            int i = 0;
+
+            @Override
+            public Object next() {
+                return i < length ? items.get(i++) : END;
+            }
+        };
+    }
+
+    private LoxSeq map(LoxCallable fn) {
+        return new LoxSeq(worker -> {
+            Source upstream = stage.open(worker);
+            return () -> {
+                Object item = upstream.next();
+                return item == END ? END : fn.call1(worker, item);
+            };
+        });
+    }
+
+    private LoxSeq filter(LoxCallable fn) {
+        return new LoxSeq(worker -> {
+            Source upstream = stage.open(worker);
+            return () -> {
+                Object item;
+                while ((item = upstream.next()) != END) {
+                    if (Interpreter.isTrue(fn.call1(worker, item))) {
+                        return item;
+                    }
+                }
+                return END;
+            };
+        });
+    }
+
+    private LoxSeq take(long n) {
+        return new LoxSeq(worker -> {
+            Source upstream = stage.open(worker);
+            return new Source() {
+                long taken = 0;
+
+                @Override
+                public Object next() {
+                    if (taken >= n) {
+                        return END;
+                    }
+                    taken++;
+                    return upstream.next();
+                }
+            };
+        });
+    }
+
+    private LoxSeq skip(long n) {
+        return new LoxSeq(worker -> {
+            Source upstream = stage.open(worker);
+            return new Source() {
+                boolean skipped = false;
+
+                @Override
+                public Object next() {
+                    if (!skipped) {
+                        skipped = true;
+                        for (long i = 0; i < n; i++) {
+                            if (upstream.next() == END) {
+                                return END;
+                            }
+                        }
+                    }
+                    return upstream.next();
+                }
+            };
+        });
+    }
+
+    private LoxSeq zip(Stage other) {
+        return new LoxSeq(worker -> {
+            Source left = stage.open(worker);
+            Source right = other.open(worker);
+            return () -> {
+                Object a = left.next();
+                if (a == END) {
+                    return END;
+                }
+                Object b = right.next();
+                if (b == END) {
+                    return END;
+                }
+                List<Object> pair = new ArrayList<>(2);
+                pair.add(a);
+                pair.add(b);
+                return new LoxArray(worker.arrayClass, pair);
+            };
+        });
+    }
+
+    private LoxSeq flatMap(LoxCallable fn) {
+        return new LoxSeq(worker -> {
+            Source upstream = stage.open(worker);
+            return new Source() {
+                Source inner = null;
+
+                @Override
+                public Object next() {
+                    while (true) {
+                        if (inner != null) {
+                            Object item = inner.next();
+                            if (item != END) {
+                                return item;
+                            }
+                        }
+                        Object outer = upstream.next();
+                        if (outer == END) {
+                            return END;
+                        }
+                        inner = source(worker, fn.call1(worker, outer)).open(worker);
+                    }
+                }
+            };
+        });
+    }
+
+    /**
+     * 终结操作的循环。每个元素经过一个检查点，没有回调的序列（比如 seq(range(n)).collect()）也受执行限制的约束
+     */
+    private LoxArray collect(Interpreter interpreter) {
+        Source source = stage.open(interpreter);
+        List<Object> items = new ArrayList<>();
+        Object item;
+        while ((item = source.next()) != END) {
+            interpreter.safepoint();
+            items.add(item);
+        }
+        return new LoxArray(interpreter.arrayClass, items);
+    }
+
+    private Object reduce(Interpreter interpreter, LoxCallable fn, Object initial) {
+        Source source = stage.open(interpreter);
+        Object acc = initial;
+        Object item;
+        while ((item = source.next()) != END) {
+            interpreter.safepoint();
+            acc = fn.call2(interpreter, acc, item);
+        }
+        return acc;
+    }
+
+    private void forEach(Interpreter interpreter, LoxCallable fn) {
+        Source source = stage.open(interpreter);
+        Object item;
+        while ((item = source.next()) != END) {
+            interpreter.safepoint();
+            fn.call1(interpreter, item);
+        }
+    }
+
+    /**
+     * with 语句使用的迭代器。hasNext 需要预先拉取一个元素
+     */
+    private LoxInstance iterator(Interpreter interpreter) {
+        Source source = stage.open(interpreter);
+        LoxInstance iter = new LoxInstance((LoxClass) null);
+        Object[] lookahead = {NONE};
+        iter.set("hasNext", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (lookahead[0] == NONE) {
+                    lookahead[0] = source.next();
+                }
+                return lookahead[0] != END;
+            }
+
+            @Override
+            public String toString() {
+                return "<native: hasNext>";
+            }
+        });
+        iter.set("next", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object item = lookahead[0] == NONE ? source.next() : lookahead[0];
+                if (item == END) {
+                    throw new LoxRuntimeError(null, "the seq has no more elements");
+                }
+                lookahead[0] = NONE;
+                return item;
+            }
+
+            @Override
+            public String toString() {
+                return "<native: next>";
+            }
+        });
+        return iter;
+    }
+
+    private static LoxCallable callback(Object fn, int arity, String method) {
+        if (!(fn instanceof LoxCallable callable) || callable.arity() != arity) {
+            throw new LoxRuntimeError(null, "seq.%s expects a callable with %d parameters, but got %s"
+                    .formatted(method, arity, Interpreter.stringify(fn)));
+        }
+        return callable;
+    }
+
+    private static long count(Object n, String method) {
+        if (n instanceof Long l && l >= 0) {
+            return l;
+        }
+        if (!(n instanceof Double d) || d < 0 || d != Math.floor(d)) {
+            throw new LoxRuntimeError(null, "seq.%s expects a non-negative integer, but got %s"
+                    .formatted(method, Interpreter.stringify(n)));
+        }
+        return d.longValue();
+    }
+
+    /**
+     * 一个 lox 可见的方法
+     */
+    private interface Method {
+        Object call(Interpreter interpreter, List<Object> arguments);
+    }
+
+    private void method(String name, int arity, Method body) {
+        set(name, new LoxCallable() {
+            @Override
+            public int arity() {
+                return arity;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return body.call(interpreter, arguments);
+            }
+
+            @Override
+            public String toString() {
+                return "<native: %s>".formatted(name);
+            }
+        });
+    }
+
+    private void defineMethods() {
+        method("map", 1, (interpreter, args) -> map(callback(args.get(0), 1, "map")));
+        method("filter", 1, (interpreter, args) -> filter(callback(args.get(0), 1, "filter")));
+        method("flatMap", 1, (interpreter, args) -> flatMap(callback(args.get(0), 1, "flatMap")));
+        method("take", 1, (interpreter, args) -> take(count(args.get(0), "take")));
+        method("skip", 1, (interpreter, args) -> skip(count(args.get(0), "skip")));
+        method("zip", 1, (interpreter, args) -> zip(source(interpreter, args.get(0))));
+        method("collect", 0, (interpreter, args) -> collect(interpreter));
+        method("reduce", 2, (interpreter, args) -> reduce(interpreter, callback(args.get(0), 2, "reduce"), args.get(1)));
+        method("forEach", 1, (interpreter, args) -> {
+            forEach(interpreter, callback(args.get(0), 1, "forEach"));
+            return null;
+        });
+        method("iter", 0, (interpreter, args) -> iterator(interpreter));
+    }
+
+    @Override
+    public String toString() {
+        return "<seq>";
+    }
+}
@@ -1,9 +1,8 @@
 public class LoxString extends LoxInstance{
     private final String backing;
-    public static LoxClass LoxStringClass = null;
 
-    public LoxString(String s) {
-        super(LoxStringClass);
+    public LoxString(LoxClass stringClass, String s) {
+        super(stringClass);
         this.backing = s;
     }
 
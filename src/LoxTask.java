@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * <p>{@code spawn(fn)} 的返回值：在一个虚拟线程上执行的无参函数。</p>
+ * 任务在一个 fork 出来的 {@link Interpreter} 中执行，它有自己的当前环境和调用栈，与创建者共享全局环境、类与解析好的代码。
+ * 任务之间应当通过 {@link LoxChannel} 传递数据；同时修改同一个变量或对象的字段是不安全的。
+ * <p>lox 代码可见的方法：
+ * <ul>
+ *     <li>{@code join()}：等待任务结束，返回函数的返回值。如果任务因为运行时错误而结束，这个错误在 join 的地方重新抛出</li>
+ *     <li>{@code done()}：任务是否已经结束</li>
+ * </ul>
+ */
+public class LoxTask extends LoxInstance {
+
+    private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+    private LoxTask() {
+        super((LoxClass) null);
+        set("join", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return join();
+            }
+
+            @Override
+            public String toString() {
+                return "<native: join>";
+            }
+        });
+        set("done", new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return result.isDone();
+            }
+
+            @Override
+            public String toString() {
+                return "<native: done>";
+            }
+        });
+    }
+
+    /**
+     * @param parent 调用 spawn 的 interpreter
+     * @param function 一个没有参数的 callable
+     */
+    static LoxTask spawn(Interpreter parent, LoxCallable function) {
+        LoxTask task = new LoxTask();
+        Interpreter fork = parent.fork();
+        Thread.ofVirtual().name("lox-task").start(() -> {
+            try {
+                task.result.complete(function.call(fork, new ArrayList<>()));
+            } catch (Throwable e) {
+                task.result.completeExceptionally(e);
+            }
+        });
+        return task;
+    }
+
+    private Object join() {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof LoxRuntimeError error) {
+                throw new LoxRuntimeError(error.token, "task failed: " + error.getMessage());
+            }
+            throw new LoxRuntimeError(null, "task failed: " + cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LoxRuntimeError(null, "interrupted while joining a task");
+        }
+    }
+
+    @Override
+    public String typeName() {
+        return "Task";
+    }
+
+    @Override
+    public String toString() {
+        return result.isDone() ? "<task: done>" : "<task: running>";
+    }
+}
@@ -15,6 +15,8 @@ public abstract class Stmt {
     R visitWhileStmt(While stmt);
     R visitVarTupleStmt(VarTuple stmt);
     R visitImportStmt(Import stmt);
+    R visitParallelWithStmt(ParallelWith stmt);
+    R visitYieldStmt(Yield stmt);
   }
   public static class Block extends Stmt {
     Block(List<Stmt> statements) {
@@ -27,6 +29,7 @@ public abstract class Stmt {
     }
 
     final List<Stmt> statements;
+    boolean scoped = true; // 由 resolver 设置。block 中没有申明任何东西时为 false，执行时不创建新的环境
   }
   public static class Class extends Stmt {
     Class(Token name, List<Stmt.Function> methods, List<Stmt.Function> staticMethods, List<Stmt.Var> staticVariables, Expr.Variable superName) {
@@ -47,6 +50,7 @@ public abstract class Stmt {
     final Expr.Variable superName;
     final List<Stmt.Function> staticMethods;
     final List<Stmt.Var> staticVariables;
+    boolean captured; // 由 resolver 设置。类名被扁平的闭包捕获时为 true
   }
   public static class Expression extends Stmt {
     Expression(Expr expression) {
@@ -61,10 +65,11 @@ public abstract class Stmt {
     final Expr expression;
   }
   public static class Function extends Stmt {
-    Function(Token name, List<Token> params, List<Stmt> body) {
+    Function(Token name, List<Token> params, List<Stmt> body, boolean generator) {
       this.name = name;
       this.params = params;
       this.body = body;
+      this.generator = generator;
     }
 
     @Override
@@ -75,6 +80,13 @@ public abstract class Stmt {
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+    final boolean generator; // 函数体中（不包括内部的函数）有 yield 语句。调用它得到一个 LoxGenerator
+    // 以下由 resolver 设置，见 LoxResolver#flatten
+    boolean captured; // 函数名被扁平的闭包捕获（包括递归的函数捕获自己）
+    boolean[] capturedParams; // 被扁平的闭包捕获的参数，调用时定义为 Environment.Cell。没有时为 null
+    String[] upvalues; // 不为 null 时这是一个扁平的闭包：它只保存这些自由变量，而不是定义时的整个环境链
+    int[] upvalueDepths; // 定义函数时，每个自由变量所在的环境与当前环境的距离
+    int globalDepth; // 定义函数时，顶层环境与当前环境的距离。扁平的闭包的外层就是顶层环境
   }
   public static class If extends Stmt {
     If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
@@ -131,6 +143,7 @@ public abstract class Stmt {
 
     final Token name;
     final Expr initializer;
+    boolean captured; // 由 resolver 设置。变量被扁平的闭包捕获时为 true，执行时定义为 Environment.Cell
   }
   public static class While extends Stmt {
     While(Expr condition, Stmt body) {
@@ -145,6 +158,9 @@ public abstract class Stmt {
 
     final Expr condition;
     final Stmt body;
+    // 由 resolver 设置。不为 null 时，每次迭代都会执行的这个 block 的环境不会被闭包捕获，整个循环复用同一个环境。
+    // 它是 body 本身，或者是 body 中的第一个语句（for 循环展开后，body 是一个没有申明的 block，其中第一个语句是原来的循环体）
+    Block reused;
   }
 
   /**
@@ -186,5 +202,45 @@ public abstract class Stmt {
     }
   }
 
+  /**
+   *  parallel with x in arr body 的语句。每个元素的 body 都在自己的环境中执行，可能位于不同的线程上
+   */
+  public static class ParallelWith extends Stmt {
+    Token keyword;
+    Token name;
+    Expr iterable;
+    Stmt body;
+
+    public ParallelWith(Token keyword, Token name, Expr iterable, Stmt body) {
+      this.keyword = keyword;
+      this.name = name;
+      this.iterable = iterable;
+      this.body = body;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitParallelWithStmt(this);
+    }
+  }
+
+  /**
+   *  yield value; 的语句。只能出现在函数中，使这个函数成为生成器
+   */
+  public static class Yield extends Stmt {
+    Token keyword;
+    Expr value;
+
+    public Yield(Token keyword, Expr value) {
+      this.keyword = keyword;
+      this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitYieldStmt(this);
+    }
+  }
+
   abstract <R> R accept(Visitor<R> visitor);
 }
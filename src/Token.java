@@ -3,12 +3,20 @@ public class Token {
     public String lexeme;
     public Object literal;
     public int line;
+    public int offset; // 该 token 在源码中的起始位置。由解析器合成的 token 为 -1
+    public int length;
 
     public Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, -1, 0);
+    }
+
+    public Token(TokenType type, String lexeme, Object literal, int line, int offset, int length) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.offset = offset;
+        this.length = length;
     }
 
     public String toString() {
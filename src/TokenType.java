@@ -12,7 +12,7 @@ public enum TokenType {
     IDENTIFIER, STRING, NUMBER,
 
     AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR, IN, WITH, AS,
-    PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE, STATIC, IMPORT, NATIVE, PUBLIC,
+    PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE, STATIC, IMPORT, NATIVE, PUBLIC, YIELD,
 
     EOF
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.SimpleBindings;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * {@link LoxScriptEngine} 的回归测试：一个线程上定义的函数、类和对象在其他线程上使用。输出与 EngineThreads.expected 比较
+ */
+public class EngineThreads {
+
+    interface Shape {
+        Object area();
+    }
+
+    public static void main(String[] args) throws Exception {
+        ScriptEngine engine = new ScriptEngineManager().getEngineByName("lox");
+        Invocable invocable = (Invocable) engine;
+        engine.eval("""
+                fun isArray() { var arr = [2]; return is(arr, Array); }
+                fun length(arr) { return arr.length(); }
+                class Square {
+                    init(side) { this.side = side; }
+                    area() { var parts = [1]; parts[0] = this.side * this.side; return parts[0]; }
+                }
+                var square = Square(3);
+                fun area() { return square.area(); }
+                """);
+        System.out.println("defining thread: " + invocable.invokeFunction("isArray"));
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            Future<?> other = pool.submit(() -> {
+                System.out.println("other thread: " + invocable.invokeFunction("isArray"));
+                System.out.println("java list: " + invocable.invokeFunction("length", java.util.List.of(1, 2, 3)));
+                System.out.println("method: " + invocable.invokeMethod(engine.get("square"), "area"));
+                System.out.println("interface: " + invocable.getInterface(Shape.class).area());
+                // 其他线程上的脚本调用这个线程上定义的函数
+                System.out.println("script: " + engine.eval("isArray();"));
+                return null;
+            });
+            other.get();
+
+            // 编译好的脚本同时在多个线程上执行，各自使用自己的 bindings
+            CompiledScript script = ((Compilable) engine).compile("var total = 0; var i = 0; while (i < n) { total = total + i; i = i + 1; } total;");
+            Future<?>[] runs = new Future<?>[8];
+            for (int i = 0; i < runs.length; i++) {
+                long n = 1000 * (i + 1);
+                runs[i] = pool.submit(() -> {
+                    SimpleBindings bindings = new SimpleBindings();
+                    bindings.put("n", n);
+                    return script.eval(bindings).equals(n * (n - 1) / 2);
+                });
+            }
+            boolean all = true;
+            for (Future<?> run : runs) {
+                all &= (Boolean) run.get();
+            }
+            System.out.println("concurrent compiled runs: " + all);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}